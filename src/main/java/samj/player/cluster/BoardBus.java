@@ -0,0 +1,17 @@
+package samj.player.cluster;
+
+/*
+ * Message bus between the nodes of a partitioned board, see BoardRegion.  Each node simulates one
+ * region and is addressed by its region number.  The messages from one node to another must be
+ * delivered in the order they were sent.
+ *
+ * SocketBoardBus connects the nodes over TCP.
+ */
+public interface BoardBus {
+
+	// Queue the message for the region, without waiting for it to be delivered.
+	void send(int region, BusMessage message);
+
+	// Next message for the region, null when there are none.
+	BusMessage poll(int region);
+}
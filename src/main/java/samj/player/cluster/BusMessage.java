@@ -0,0 +1,27 @@
+package samj.player.cluster;
+
+import java.util.List;
+
+/*
+ * Messages between the regions of a partitioned board.
+ *
+ * Handoff: a player which moved into the receiving region, which now owns it.
+ * Border: the players owned by the sender which are in or near the receiving region, replacing
+ * those in the last Border from the sender.
+ */
+public sealed interface BusMessage {
+
+	int fromRegion();
+
+	long tick();
+
+	// Player state, positions are board co-ordinates.
+	record Entity(String id, String name, boolean auto, int x, int y, int dx, int dy) {
+	}
+
+	record Handoff(int fromRegion, long tick, Entity entity) implements BusMessage {
+	}
+
+	record Border(int fromRegion, long tick, List<Entity> entities) implements BusMessage {
+	}
+}
@@ -0,0 +1,233 @@
+package samj.player.cluster;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import lombok.extern.apachecommons.CommonsLog;
+import samj.player.cluster.BusMessage.Border;
+import samj.player.cluster.BusMessage.Entity;
+import samj.player.cluster.BusMessage.Handoff;
+
+/*
+ * Bus for a board partitioned over several nodes, with a TCP connection from each node to each of
+ * the others.  This node listens on the address of its own region, and the messages it receives
+ * are queued for poll().  A message sent to another region is queued for that region's connection
+ * and written by its own virtual thread, so send() doesn't wait for the network.  A connection
+ * carries the messages in the order they were sent.  While a node can't be reached its messages
+ * are kept, and the connection is tried again every RETRY_MILLIS.  The messages written to a
+ * connection which then fails are lost: a Border is sent again on the next tick, but a drone being
+ * handed off is dropped.
+ *
+ * Each message is a type byte, the sender's region and the tick, then the entities, as written by
+ * DataOutputStream.
+ */
+@CommonsLog
+public class SocketBoardBus implements BoardBus, AutoCloseable {
+
+	private static final byte TYPE_HANDOFF = 1;
+	private static final byte TYPE_BORDER = 2;
+	private static final long RETRY_MILLIS = 500;
+
+	private final int region;
+	private final List<InetSocketAddress> peers;
+	private final ExecutorService virtualThreadExecutor;
+	private final ServerSocket server;
+	private final Queue<BusMessage> received = new ConcurrentLinkedQueue<>();
+	// Messages for each of the other regions, null for this one.
+	private final List<BlockingQueue<BusMessage>> outgoing;
+	// Open sockets and the writer threads, stopped by close().
+	private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+	private final List<Thread> writers = new CopyOnWriteArrayList<>();
+	private volatile boolean closed = false;
+
+	// peers has the address of each region's node, in region order.
+	public SocketBoardBus(int region, List<InetSocketAddress> peers, ExecutorService virtualThreadExecutor)
+			throws IOException {
+		this(region, new ServerSocket(peers.get(region).getPort()), peers, virtualThreadExecutor);
+	}
+
+	// Listens on the server socket given, for the tests which bind to any free port.
+	public SocketBoardBus(int region, ServerSocket server, List<InetSocketAddress> peers,
+			ExecutorService virtualThreadExecutor) {
+		if (region < 0 || region >= peers.size()) {
+			throw new IllegalArgumentException("Region " + region + " not in the " + peers.size() + " peers");
+		}
+		this.region = region;
+		this.peers = List.copyOf(peers);
+		this.virtualThreadExecutor = virtualThreadExecutor;
+		this.server = server;
+		this.outgoing = new ArrayList<>(peers.size());
+		for (int r = 0; r < peers.size(); r++) {
+			outgoing.add((r != region) ? new LinkedBlockingQueue<>() : null);
+		}
+		virtualThreadExecutor.execute(this::accept);
+		for (int r = 0; r < peers.size(); r++) {
+			if (r != region) {
+				int to = r;
+				virtualThreadExecutor.execute(() -> write(to));
+			}
+		}
+	}
+
+	@Override
+	public void send(int region, BusMessage message) {
+		outgoing.get(region).add(message);
+	}
+
+	@Override
+	public BusMessage poll(int region) {
+		if (region != this.region) {
+			throw new IllegalArgumentException("Region " + region + " is on another node");
+		}
+		return received.poll();
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		server.close();
+		for (Thread writer : writers) {
+			writer.interrupt();
+		}
+		for (Socket socket : sockets) {
+			socket.close();
+		}
+	}
+
+	private void accept() {
+		try {
+			while (!closed) {
+				Socket socket = server.accept();
+				sockets.add(socket);
+				virtualThreadExecutor.execute(() -> read(socket));
+			}
+		} catch (IOException e) {
+			if (!closed) {
+				log.error("Region " + region + " bus stopped accepting: " + e.getMessage());
+			}
+		}
+	}
+
+	private void read(Socket socket) {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+			while (!closed) {
+				received.add(readMessage(in));
+			}
+		} catch (EOFException | SocketException e) {
+			// The other node closed the connection.
+		} catch (IOException e) {
+			log.error("Region " + region + " bus read failed: " + e.getMessage());
+		} finally {
+			sockets.remove(socket);
+		}
+	}
+
+	// Connects to the region's node and writes its messages, connecting again if the socket fails.
+	private void write(int to) {
+		BlockingQueue<BusMessage> queue = outgoing.get(to);
+		BusMessage pending = null;
+		writers.add(Thread.currentThread());
+		try {
+			while (!closed) {
+				try (Socket socket = new Socket()) {
+					socket.connect(peers.get(to));
+					socket.setTcpNoDelay(true);
+					sockets.add(socket);
+					DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+					while (!closed) {
+						if (pending == null) {
+							pending = queue.take();
+						}
+						writeMessage(out, pending);
+						pending = null;
+						// The messages of a tick go out together.
+						if (queue.isEmpty()) {
+							out.flush();
+						}
+					}
+				} catch (IOException e) {
+					sockets.removeIf(Socket::isClosed);
+					if (!closed) {
+						log.info("Region " + region + " bus to region " + to + ": " + e.getMessage() + ", retrying");
+						Thread.sleep(Duration.ofMillis(RETRY_MILLIS));
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			if (!closed) {
+				log.info("Region " + region + " bus to region " + to + " interrupted");
+			}
+		}
+	}
+
+	private static void writeMessage(DataOutputStream out, BusMessage message) throws IOException {
+		switch (message) {
+			case Handoff handoff -> {
+				out.writeByte(TYPE_HANDOFF);
+				out.writeInt(handoff.fromRegion());
+				out.writeLong(handoff.tick());
+				writeEntity(out, handoff.entity());
+			}
+			case Border border -> {
+				out.writeByte(TYPE_BORDER);
+				out.writeInt(border.fromRegion());
+				out.writeLong(border.tick());
+				out.writeInt(border.entities().size());
+				for (Entity e : border.entities()) {
+					writeEntity(out, e);
+				}
+			}
+		}
+	}
+
+	private static BusMessage readMessage(DataInputStream in) throws IOException {
+		byte type = in.readByte();
+		int fromRegion = in.readInt();
+		long tick = in.readLong();
+		switch (type) {
+			case TYPE_HANDOFF:
+				return new Handoff(fromRegion, tick, readEntity(in));
+			case TYPE_BORDER:
+				int count = in.readInt();
+				List<Entity> entities = new ArrayList<>(count);
+				for (int i = 0; i < count; i++) {
+					entities.add(readEntity(in));
+				}
+				return new Border(fromRegion, tick, entities);
+			default:
+				throw new IOException("Bad bus message type " + type);
+		}
+	}
+
+	private static void writeEntity(DataOutputStream out, Entity e) throws IOException {
+		out.writeUTF(e.id());
+		out.writeUTF(e.name());
+		out.writeBoolean(e.auto());
+		out.writeInt(e.x());
+		out.writeInt(e.y());
+		out.writeInt(e.dx());
+		out.writeInt(e.dy());
+	}
+
+	private static Entity readEntity(DataInputStream in) throws IOException {
+		return new Entity(in.readUTF(), in.readUTF(), in.readBoolean(), in.readInt(), in.readInt(), in.readInt(),
+				in.readInt());
+	}
+}
@@ -0,0 +1,105 @@
+package samj.player.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import lombok.Data;
+import samj.player.service.BroadPhaseType;
+import samj.player.service.InputMode;
+import samj.player.service.TickMode;
+import samj.player.service.TickPolicy;
+import samj.player.ws.DeflateMode;
+import samj.player.ws.DeflatePolicy;
+import samj.player.ws.SendPolicy;
+
+// Game settings from the "player." keys in application.properties.
+@Data
+@ConfigurationProperties(prefix = "player")
+public class PlayerProperties {
+
+	// Board size, it can be bigger than the browser viewport.  The binary position frames
+	// have 16 bit coordinates.
+	public static final int MAX_BOARD_SIZE = Short.MAX_VALUE;
+	private int boardWidth = 600;
+	private int boardHeight = 400;
+
+	// Default browser viewport size, each browser is only sent the players in or near its viewport.
+	private int viewWidth = 600;
+	private int viewHeight = 400;
+
+	// Collision detection strategy for the board animation.
+	private BroadPhaseType broadPhase = BroadPhaseType.GRID;
+
+	// Tick period, and what to do with the ticks missed when the server can't keep up.
+	private int tickMillis = 20;
+	private TickPolicy tickPolicy = TickPolicy.SKIP;
+	private int maxCatchUpTicks = 3;
+
+	// Joins, leaves and keys applied with the board lock, or queued for the tick thread.
+	private InputMode inputMode = InputMode.LOCKED;
+
+	// Serial or parallel move and collide on each tick.
+	private TickMode tickMode = TickMode.SERIAL;
+
+	// Number of board bands for the parallel tick, 0 for one per CPU core.
+	private int bands = 0;
+
+	// A room with more players than this is split in two, 0 to keep everyone in one room.
+	private int roomSplitPlayers = 100;
+	// Most rooms open at once, 0 for one per CPU core.
+	private int maxRooms = 0;
+
+	// Ticks between the frames with all the players, the others only have the players which moved.
+	private int keyframeTicks = 50;
+
+	// A browser behind for this many ticks is downgraded to fewer full frames, and then closed.
+	private int lagTicks = 25;
+	private int downgradeIntervalTicks = 10;
+	// Longest wait to write one message to a browser.
+	private long sendTimeoutMillis = 2000;
+
+	// Which browsers get permessage-deflate: OFF, ALL, or ADAPTIVE for the position frames of at least
+	// deflateMinFrameBytes which compress well, within deflateCpuPercent of the tick for all of them.
+	private DeflateMode deflate = DeflateMode.ADAPTIVE;
+	private int deflateMinFrameBytes = 512;
+	private int deflateCpuPercent = 10;
+
+	// Directory for the input journals of the rooms, empty for none.
+	private String journalDir = "";
+
+	// The "player.region." keys, for a board partitioned over several nodes.
+	private final Region region = new Region();
+
+	@Data
+	public static class Region {
+		// This node's region, its index in the peers.
+		private int index = 0;
+		// Bus address, host:port, of each region's node in region order, empty for a board on one node.
+		private List<String> peers = List.of();
+	}
+
+	public void setBoardWidth(int boardWidth) {
+		this.boardWidth = checkBoardSize("board-width", boardWidth);
+	}
+
+	public void setBoardHeight(int boardHeight) {
+		this.boardHeight = checkBoardSize("board-height", boardHeight);
+	}
+
+	private static int checkBoardSize(String name, int size) {
+		if (size < 1 || size > MAX_BOARD_SIZE) {
+			throw new IllegalArgumentException("player." + name + " " + size + " not from 1 to " + MAX_BOARD_SIZE);
+		}
+		return size;
+	}
+
+	public SendPolicy toSendPolicy() {
+		return new SendPolicy(lagTicks, downgradeIntervalTicks, sendTimeoutMillis);
+	}
+
+	public DeflatePolicy toDeflatePolicy() {
+		return new DeflatePolicy(deflate, deflateMinFrameBytes, TimeUnit.MILLISECONDS.toNanos(tickMillis) * deflateCpuPercent / 100);
+	}
+}
@@ -1,25 +1,33 @@
 package samj.player.config;
 
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.socket.config.annotation.*;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.apachecommons.CommonsLog;
+import samj.player.metrics.PlayerMetrics;
 import samj.player.service.PlayerService;
 import samj.player.util.JacksonMapper;
+import samj.player.ws.DeflatePolicy;
 import samj.player.ws.PlayerWebSocketHandler;
 import samj.player.ws.PlayerHandshakeInterceptor;
+import samj.player.ws.PlayerUpgradeStrategy;
 
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 @Configuration
 @EnableWebSocket
+@EnableConfigurationProperties(PlayerProperties.class)
 @RequiredArgsConstructor
 @CommonsLog
 public class WebSocketConfig implements WebSocketConfigurer {
 
+	private final PlayerProperties properties;
+
     @Bean("mapper")
     JacksonMapper getMapper() {
     	return new JacksonMapper();
@@ -30,15 +38,28 @@ public class WebSocketConfig implements WebSocketConfigurer {
 		return Executors.newVirtualThreadPerTaskExecutor();
 	}
     
+    @Bean("playerMetrics")
+    PlayerMetrics getPlayerMetrics() {
+    	return new PlayerMetrics();
+    }
+
     @Bean("playerService")
     PlayerService getPlayerService() {
-    	return new PlayerService(getVirtualThreadExecutor());
+    	return new PlayerService(getVirtualThreadExecutor(), properties, getPlayerMetrics());
     }
     
+    @Bean("deflatePolicy")
+    DeflatePolicy getDeflatePolicy() {
+    	DeflatePolicy policy = properties.toDeflatePolicy();
+    	policy.report(getPlayerMetrics());
+    	return policy;
+    }
+
     @Bean("customWebSocketHandler")
     PlayerWebSocketHandler getCustomWebSocketHandler() {
     	PlayerService playerService = getPlayerService();
-    	PlayerWebSocketHandler handler = new PlayerWebSocketHandler(getVirtualThreadExecutor(), getMapper(), playerService);
+    	PlayerWebSocketHandler handler = new PlayerWebSocketHandler(getVirtualThreadExecutor(), getMapper(), playerService,
+    			getPlayerMetrics(), properties.toSendPolicy(), getDeflatePolicy());
     	playerService.setCustomWebSocketHandler(handler);
     	return handler;
     }
@@ -47,7 +68,8 @@ public class WebSocketConfig implements WebSocketConfigurer {
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
     	log.info("registerWebSocketHandlers");
         registry.addHandler(getCustomWebSocketHandler(), "/ws/notifications")
-        		.addInterceptors(new PlayerHandshakeInterceptor());
+        		.addInterceptors(new PlayerHandshakeInterceptor())
+        		.setHandshakeHandler(new DefaultHandshakeHandler(new PlayerUpgradeStrategy(getDeflatePolicy())));
     }
 
 }
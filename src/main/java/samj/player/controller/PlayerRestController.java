@@ -5,8 +5,11 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.Map;
+
 import lombok.RequiredArgsConstructor;
 import lombok.extern.apachecommons.CommonsLog;
+import samj.player.metrics.PlayerMetrics;
 import samj.player.service.PlayerService;
 
 @RestController
@@ -15,6 +18,7 @@ import samj.player.service.PlayerService;
 @RequiredArgsConstructor
 public class PlayerRestController {
 	private final PlayerService playerService;
+	private final PlayerMetrics playerMetrics;
 
 	@GetMapping("/init-name")
 	public ResponseEntity<String> initName() {
@@ -28,4 +32,9 @@ public class PlayerRestController {
 			return ResponseEntity.ok("$err:Exception:" + e.getMessage());
 		}
 	}
+
+	@GetMapping("/stats")
+	public ResponseEntity<Map<String, Long>> stats() {
+		return ResponseEntity.ok(playerMetrics.snapshot());
+	}
 }
@@ -0,0 +1,200 @@
+package samj.player.metrics;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+
+/*
+ * Counters for the game server, updated from the timer and websocket threads.
+ *
+ * The counters and timers are also Micrometer meters, named "player.*".  They are made on a
+ * registry of our own, which records nothing until Spring Boot binds it to the app's registry,
+ * so the Prometheus endpoint of the Actuator has them.  The tests and the replay use them unbound.
+ */
+@Getter
+public class PlayerMetrics implements MeterBinder {
+
+	@Getter(AccessLevel.NONE)
+	private final CompositeMeterRegistry registry = new CompositeMeterRegistry();
+
+	private final LongAdder ticks = new LongAdder();
+	private final LongAdder keyframes = new LongAdder();
+	// Queued keys replaced by newer keys from the same browser before the tick applied them.
+	private final LongAdder keysCoalesced = new LongAdder();
+	// Binary keys dropped as duplicates or out of order.
+	private final LongAdder keysDropped = new LongAdder();
+	// Ticks which didn't run because earlier ticks ran late.
+	private final LongAdder ticksSkipped = new LongAdder();
+	// Ticks which ran past the end of their slot, and by how much.
+	private final LongAdder tickOverruns = new LongAdder();
+	private final LongAdder tickOverrunNanos = new LongAdder();
+	private final LongAccumulator tickOverrunMaxNanos = new LongAccumulator(Math::max, 0);
+	// Player positions put in a frame, and left out because they didn't change.
+	private final LongAdder positionsSent = new LongAdder();
+	private final LongAdder positionsSuppressed = new LongAdder();
+	// Position frames a slow browser didn't get before the next tick replaced them.
+	private final LongAdder framesDropped = new LongAdder();
+	// Delta frames not sent to a downgraded browser, which only gets the full frames.
+	private final LongAdder framesSkipped = new LongAdder();
+	// Browsers which fell behind for too long, and those closed because they stayed behind.
+	private final LongAdder sessionsDowngraded = new LongAdder();
+	private final LongAdder sessionsOverloaded = new LongAdder();
+	// Rooms split because they had too many players.
+	private final LongAdder roomSplits = new LongAdder();
+	// Snapshot frames built from a tick's board for the joining browsers, and the browsers sent them.
+	private final LongAdder snapshotsBuilt = new LongAdder();
+	private final LongAdder snapshotsSent = new LongAdder();
+	// Roster messages with a tick's joins and leaves, and the browsers which missed one and asked again.
+	private final LongAdder rosterMessages = new LongAdder();
+	private final LongAdder rosterResyncs = new LongAdder();
+	// Messages written to the browsers, and their payload bytes.
+	private final LongAdder framesSent = new LongAdder();
+	private final LongAdder bytesSent = new LongAdder();
+
+	// The parts of a tick: move, collide, the position lists and snapshot, and the frames.
+	private final Timer tickMove = tickTimer("move");
+	private final Timer tickCollide = tickTimer("collide");
+	private final Timer tickUpdate = tickTimer("update");
+	private final Timer tickEncode = tickTimer("encode");
+	// A whole tick, with the fanout.
+	private final Timer tickTotal = tickTimer("total");
+	// Putting a tick's frames on the session queues.
+	private final Timer fanout = timer("player.fanout", "Time to queue a tick's frames on the sessions",
+			Duration.ofNanos(1000), Duration.ofSeconds(1));
+	// From a frame being built to it being written to a browser, so it includes the queue wait.
+	private final Timer sendLatency = timer("player.session.send", "Time from building a frame to writing it",
+			Duration.ofMillis(1), Duration.ofSeconds(10));
+	private final Timer boardLockWait = timer("player.board.lock.wait", "Wait for the board lock",
+			Duration.ofNanos(1000), Duration.ofSeconds(1));
+
+	// Frames waiting in the session queues, read when the metrics are shown.
+	@Setter
+	private volatile LongSupplier queueDepth = () -> 0;
+	// Rooms open, read when the metrics are shown.
+	@Setter
+	private volatile LongSupplier rooms = () -> 0;
+	// Websocket sessions, and the players and drones in all the rooms.
+	@Setter
+	private volatile LongSupplier sessions = () -> 0;
+	@Setter
+	private volatile LongSupplier players = () -> 0;
+	@Setter
+	private volatile LongSupplier drones = () -> 0;
+	// Sessions compressed with permessage-deflate, their estimated deflate time a tick, and the
+	// compressed size over the original of the text and binary position frames.
+	@Setter
+	private volatile LongSupplier deflateSessions = () -> 0;
+	@Setter
+	private volatile LongSupplier deflateTickNanos = () -> 0;
+	@Setter
+	private volatile DoubleSupplier deflateTextRatio = () -> 1;
+	@Setter
+	private volatile DoubleSupplier deflateBinaryRatio = () -> 1;
+
+	public PlayerMetrics() {
+		counter("player.ticks", ticks);
+		counter("player.keyframes", keyframes);
+		counter("player.keys.coalesced", keysCoalesced);
+		counter("player.keys.dropped", keysDropped);
+		counter("player.ticks.skipped", ticksSkipped);
+		counter("player.tick.overruns", tickOverruns);
+		counter("player.positions.sent", positionsSent);
+		counter("player.positions.suppressed", positionsSuppressed);
+		counter("player.frames.dropped", framesDropped);
+		counter("player.frames.skipped", framesSkipped);
+		counter("player.sessions.downgraded", sessionsDowngraded);
+		counter("player.sessions.overloaded", sessionsOverloaded);
+		counter("player.room.splits", roomSplits);
+		counter("player.snapshots.built", snapshotsBuilt);
+		counter("player.snapshots.sent", snapshotsSent);
+		counter("player.roster.messages", rosterMessages);
+		counter("player.roster.resyncs", rosterResyncs);
+		counter("player.frames.sent", framesSent);
+		counter("player.bytes.sent", bytesSent);
+		gauge("player.queue.depth", () -> queueDepth.getAsLong());
+		gauge("player.rooms", () -> rooms.getAsLong());
+		gauge("player.sessions", () -> sessions.getAsLong());
+		gauge("player.players", () -> players.getAsLong());
+		gauge("player.drones", () -> drones.getAsLong());
+		gauge("player.deflate.sessions", () -> deflateSessions.getAsLong());
+		gauge("player.deflate.tick.nanos", () -> deflateTickNanos.getAsLong());
+		Gauge.builder("player.deflate.ratio", () -> deflateTextRatio.getAsDouble()).tag("format", "text")
+				.register(registry);
+		Gauge.builder("player.deflate.ratio", () -> deflateBinaryRatio.getAsDouble()).tag("format", "binary")
+				.register(registry);
+	}
+
+	@Override
+	public void bindTo(MeterRegistry meterRegistry) {
+		registry.add(meterRegistry);
+	}
+
+	private Timer tickTimer(String phase) {
+		return Timer.builder("player.tick").description("Tick time by phase").tag("phase", phase)
+				.publishPercentileHistogram().minimumExpectedValue(Duration.ofNanos(1000))
+				.maximumExpectedValue(Duration.ofSeconds(1)).register(registry);
+	}
+
+	private Timer timer(String name, String description, Duration min, Duration max) {
+		return Timer.builder(name).description(description).publishPercentileHistogram().minimumExpectedValue(min)
+				.maximumExpectedValue(max).register(registry);
+	}
+
+	private void counter(String name, LongAdder adder) {
+		FunctionCounter.builder(name, adder, LongAdder::sum).register(registry);
+	}
+
+	private void gauge(String name, LongSupplier supplier) {
+		Gauge.builder(name, supplier, s -> s.getAsLong()).strongReference(true).register(registry);
+	}
+
+	public Map<String, Long> snapshot() {
+		Map<String, Long> map = new LinkedHashMap<>();
+		map.put("ticks", ticks.sum());
+		map.put("keyframes", keyframes.sum());
+		map.put("keysCoalesced", keysCoalesced.sum());
+		map.put("keysDropped", keysDropped.sum());
+		map.put("ticksSkipped", ticksSkipped.sum());
+		map.put("tickOverruns", tickOverruns.sum());
+		map.put("tickOverrunMillis", TimeUnit.NANOSECONDS.toMillis(tickOverrunNanos.sum()));
+		map.put("tickOverrunMaxMillis", TimeUnit.NANOSECONDS.toMillis(tickOverrunMaxNanos.get()));
+		map.put("positionsSent", positionsSent.sum());
+		map.put("positionsSuppressed", positionsSuppressed.sum());
+		map.put("framesDropped", framesDropped.sum());
+		map.put("framesSkipped", framesSkipped.sum());
+		map.put("sessionsDowngraded", sessionsDowngraded.sum());
+		map.put("sessionsOverloaded", sessionsOverloaded.sum());
+		map.put("roomSplits", roomSplits.sum());
+		map.put("snapshotsBuilt", snapshotsBuilt.sum());
+		map.put("snapshotsSent", snapshotsSent.sum());
+		map.put("rosterMessages", rosterMessages.sum());
+		map.put("rosterResyncs", rosterResyncs.sum());
+		map.put("framesSent", framesSent.sum());
+		map.put("bytesSent", bytesSent.sum());
+		map.put("queueDepth", queueDepth.getAsLong());
+		map.put("rooms", rooms.getAsLong());
+		map.put("sessions", sessions.getAsLong());
+		map.put("players", players.getAsLong());
+		map.put("drones", drones.getAsLong());
+		map.put("deflateSessions", deflateSessions.getAsLong());
+		map.put("deflateTickMicros", TimeUnit.NANOSECONDS.toMicros(deflateTickNanos.getAsLong()));
+		map.put("deflateTextPercent", Math.round(deflateTextRatio.getAsDouble() * 100));
+		map.put("deflateBinaryPercent", Math.round(deflateBinaryRatio.getAsDouble() * 100));
+		return map;
+	}
+}
@@ -0,0 +1,240 @@
+package samj.player.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import samj.player.metrics.PlayerMetrics;
+
+/*
+ * Area of interest culling, so each browser only receives the players near its viewport.
+ *
+ * The board is divided into tiles the size of the default viewport, using the same SpatialGrid
+ * index as the collision broad-phase.  Each browser is sent the tiles which overlap its viewport
+ * plus a margin.  The position list for a tile is built once per tick and shared by all the
+ * browsers which need it.
+ *
+ * When a player comes into view the browser is sent its name, and when a player goes out of view
+ * the browser is sent the player id without a position so the icon is erased.
+ *
+ * Normally a tile is sent as a delta, with only the players which moved since the last tick.  A
+ * browser which has just scrolled a tile into view gets all the players in it, and every browser
+ * gets all the players on a keyframe tick so it can recover from a lost frame.
+ *
+ * The positions are copied into a PositionList for each tile, which the PlayerService encodes as
+ * text or binary frames after the board lock is released.
+ *
+ * A board which fits in a single tile has the area of interest disabled, every browser gets the
+ * whole board.
+ *
+ * update() is called by the timer thread with the board lock held, the results are only read by
+ * the timer thread until the next update().
+ *
+ * Use of the AreaOfInterest object is restricted to its package -> NO public modifiers.
+ */
+class AreaOfInterest {
+
+	// Messages for one browser session from the last update, tiles not in oldRect need a full list.
+	record ViewUpdate(String sessionId, boolean binary, TileRect rect, TileRect oldRect, List<String> names,
+			List<String> exits) {
+	}
+
+	private final int playerSize;
+	private final int margin;
+	private final SpatialGrid grid;
+	private final boolean enabled;
+	private final PlayerMetrics metrics;
+
+	private final List<PositionList> tilePositions;
+	private final List<PositionList> tileFullPositions;
+	private final boolean[] tileWanted;
+	private final boolean[] tileFullWanted;
+	private boolean[] changed = new boolean[0];
+	private boolean[] sendId = new boolean[0];
+	private final List<ViewUpdate> views = new ArrayList<>();
+	private int[] oldTile = new int[0];
+	private int[] transitions = new int[0];
+	private int transitionCount = 0;
+
+	AreaOfInterest(Board board, int tileWidth, int tileHeight, PlayerMetrics metrics) {
+		this.metrics = metrics;
+		this.playerSize = board.playerSize;
+		this.margin = board.playerSize;
+		this.grid = new SpatialGrid(board.width, board.height, tileWidth, tileHeight);
+		this.enabled = grid.cellCount() > 1;
+		this.tilePositions = new ArrayList<>(grid.cellCount());
+		this.tileFullPositions = new ArrayList<>(grid.cellCount());
+		for (int i = 0; i < grid.cellCount(); i++) {
+			tilePositions.add(new PositionList());
+			tileFullPositions.add(new PositionList());
+		}
+		this.tileWanted = new boolean[grid.cellCount()];
+		this.tileFullWanted = new boolean[grid.cellCount()];
+	}
+
+	boolean isEnabled() {
+		return enabled;
+	}
+
+	int getTileCount() {
+		return grid.cellCount();
+	}
+
+	int getTileCols() {
+		return grid.cols;
+	}
+
+	/*
+	 * Player positions in the tile, only built for tiles in a view.  The full list has all the
+	 * players, otherwise only the players which moved.  On a keyframe only the full list is built.
+	 */
+	PositionList getTilePositions(int tile, boolean full) {
+		return full ? tileFullPositions.get(tile) : tilePositions.get(tile);
+	}
+
+	List<ViewUpdate> getViews() {
+		return views;
+	}
+
+	void update(PlayerStore store, boolean keyframe) {
+		int count = store.count;
+		grid.build(count, store.x, store.y);
+		if (oldTile.length < count) {
+			int len = Math.max(count, oldTile.length * 2);
+			oldTile = new int[len];
+			transitions = new int[len];
+			changed = new boolean[len];
+			sendId = new boolean[len];
+		}
+		transitionCount = 0;
+		for (int slot = 0; slot < count; slot++) {
+			int tile = grid.itemCell(slot);
+			oldTile[slot] = store.tile[slot];
+			store.tile[slot] = tile;
+			if (oldTile[slot] != tile) {
+				transitions[transitionCount++] = slot;
+			}
+			changed[slot] = store.takeMoved(slot);
+			// A browser may not know the handle of a player which is new to it.
+			sendId[slot] = store.takeNewHandle(slot) || oldTile[slot] != tile;
+		}
+		views.clear();
+		Arrays.fill(tileWanted, !enabled);
+		Arrays.fill(tileFullWanted, false);
+		if (enabled) {
+			for (int slot = 0; slot < count; slot++) {
+				Player p = store.players[slot];
+				if (!store.auto[slot] && p.getSessionId() != null) {
+					views.add(updateView(store, slot, p));
+				}
+			}
+		}
+		for (int tile = 0; tile < tilePositions.size(); tile++) {
+			PositionList positions = tilePositions.get(tile);
+			PositionList fullPositions = tileFullPositions.get(tile);
+			positions.clear();
+			fullPositions.clear();
+			if (tileWanted[tile] && !keyframe) {
+				for (int k = grid.cellStart(tile); k < grid.cellEnd(tile); k++) {
+					int slot = grid.item(k);
+					if (changed[slot]) {
+						addPosition(store, slot, positions, sendId[slot]);
+					}
+				}
+				metrics.getPositionsSent().add(positions.count);
+				metrics.getPositionsSuppressed().add(grid.cellEnd(tile) - grid.cellStart(tile) - positions.count);
+			}
+			if (tileFullWanted[tile] || (tileWanted[tile] && keyframe)) {
+				for (int k = grid.cellStart(tile); k < grid.cellEnd(tile); k++) {
+					addPosition(store, grid.item(k), fullPositions, true);
+				}
+				metrics.getPositionsSent().add(fullPositions.count);
+			}
+		}
+	}
+
+	private ViewUpdate updateView(PlayerStore store, int slot, Player p) {
+		TileRect oldRect = p.getTileRect();
+		TileRect rect = toTileRect(p.getView(), store.x[slot], store.y[slot]);
+		p.setTileRect(rect);
+		List<String> names = new ArrayList<>();
+		List<String> exits = new ArrayList<>();
+		for (int row = rect.row0(); row <= rect.row1(); row++) {
+			for (int col = rect.col0(); col <= rect.col1(); col++) {
+				int tile = row * grid.cols + col;
+				tileWanted[tile] = true;
+				if (!oldRect.contains(col, row)) {
+					tileFullWanted[tile] = true;
+					// Tile came into view, the players which changed tile are done below.
+					for (int k = grid.cellStart(tile); k < grid.cellEnd(tile); k++) {
+						int s = grid.item(k);
+						if (oldTile[s] == tile) {
+							addName(store, s, names);
+						}
+					}
+				}
+			}
+		}
+		for (int row = oldRect.row0(); row <= oldRect.row1(); row++) {
+			for (int col = oldRect.col0(); col <= oldRect.col1(); col++) {
+				int tile = row * grid.cols + col;
+				if (!rect.contains(col, row)) {
+					for (int k = grid.cellStart(tile); k < grid.cellEnd(tile); k++) {
+						int s = grid.item(k);
+						if (oldTile[s] == tile) {
+							exits.add(store.players[s].getId());
+						}
+					}
+				}
+			}
+		}
+		for (int i = 0; i < transitionCount; i++) {
+			int s = transitions[i];
+			boolean before = inRect(oldRect, oldTile[s]);
+			boolean now = inRect(rect, store.tile[s]);
+			if (now && !before) {
+				addName(store, s, names);
+			} else if (before && !now) {
+				exits.add(store.players[s].getId());
+			}
+		}
+		return new ViewUpdate(p.getSessionId(), p.isBinary(), rect, oldRect, names, exits);
+	}
+
+	private void addPosition(PlayerStore store, int slot, PositionList positions, boolean withId) {
+		positions.add(store.players[slot].getId(), store.handle[slot], store.x[slot], store.y[slot], withId);
+	}
+
+	private void addName(PlayerStore store, int slot, List<String> names) {
+		// Drones don't have a name on-screen.
+		if (!store.auto[slot]) {
+			Player p = store.players[slot];
+			names.add(p.getId() + ':' + p.getName());
+		}
+	}
+
+	private boolean inRect(TileRect rect, int tile) {
+		return tile >= 0 && rect.contains(tile % grid.cols, tile / grid.cols);
+	}
+
+	private TileRect toTileRect(Viewport view, int x, int y) {
+		int vx;
+		int vy;
+		int vw;
+		int vh;
+		if (view != null) {
+			vx = view.x();
+			vy = view.y();
+			vw = view.width();
+			vh = view.height();
+		} else {
+			// Follow the player.
+			vw = grid.cellWidth;
+			vh = grid.cellHeight;
+			vx = x + (playerSize / 2) - (vw / 2);
+			vy = y + (playerSize / 2) - (vh / 2);
+		}
+		return new TileRect(grid.col(vx - margin), grid.row(vy - margin),
+				grid.col(vx + vw + margin), grid.row(vy + vh + margin));
+	}
+}
@@ -1,212 +1,536 @@
 package samj.player.service;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.apachecommons.CommonsLog;
+import samj.player.metrics.PlayerMetrics;
 import samj.player.util.PlayerRandom;
 
 /*
  * Use of the Board object is restricted to its package -> NO public modifiers.
+ *
+ * In the QUEUED input mode joins, leaves and keys don't take the board lock.  They go on lock-free
+ * queues which animate() drains at the start of the tick, so only the tick thread changes the
+ * PlayerStore.  A player's keys are kept on the Player and only the latest ones are applied.
+ *
+ * The tick publishes a BoardSnapshot at its end, which the read APIs use so a browser joining
+ * doesn't hold up the tick.
+ *
+ * With an InputJournal the joins, leaves and keys are written to it as they are applied to the
+ * PlayerStore, with the number of ticks done, so BoardReplay can run them again.
+ *
+ * The joins and leaves of the browsers' players are also kept as roster events when they are
+ * applied to the PlayerStore, and animate() takes them with the snapshot it publishes, so the
+ * snapshot has exactly the players of the roster events up to it.
  */
 @CommonsLog
 class Board {
 
-	final int width = 600;
-	final int height = 400;
+	static final int DEFAULT_WIDTH = 600;
+	static final int DEFAULT_HEIGHT = 400;
+
+	final int width;
+	final int height;
 	final int playerSize = 32;
-	final int maxX = width - playerSize - 1;
-	final int maxY = height - playerSize - 1;
+	final int maxX;
+	final int maxY;
 	final int checkPlayerSize = playerSize + 1;
 	final int maxBounce = 2;
 	final int motionPixels = 5;
 	final int motionDiagPixels = 3;
+	// Below this the parallel tick costs more than it saves.
+	final int parallelMinPlayers = 256;
 
-	private final Map<String, Player> playerMap = new HashMap<>();
-	private final Map<String, Player> playerNameMap = new HashMap<>();
-	private final List<Player> playerList = new ArrayList<>();
-	// animationPlayerList is reserved for animate()
-	private boolean playerListChanged = false;
-	private final List<Player> animationPlayerList = new ArrayList<>();
+	// Concurrent so the queued input can look up and reserve players without the board lock.
+	private final Map<String, Player> playerMap = new ConcurrentHashMap<>();
+	private final Map<String, Player> playerNameMap = new ConcurrentHashMap<>();
+	// Position and motion of each player in parallel arrays.
+	@Getter(AccessLevel.PACKAGE)
+	private final PlayerStore store = new PlayerStore(this);
 	private final ReentrantLock boardLock = new ReentrantLock();
 
-	private final PlayerRandom rand = new PlayerRandom();
+	// Only used with the board lock held, the parallel tick bands split their own from it.
+	private final PlayerRandom rand;
+	// Ticks done, only used with the board lock held.
+	@Getter(AccessLevel.PACKAGE)
+	private long tick = 0;
+	// Null when the input isn't recorded.
+	private final InputJournal journal;
+	// Drones in the player map, not counting the ghosts of other regions' drones.
+	private final AtomicInteger droneCount = new AtomicInteger(0);
+	// Ghosts of other regions' players in the player map, which this board doesn't own.
+	private final AtomicInteger ghostCount = new AtomicInteger(0);
+
+	// Collision candidates, with co-ordinate arrays reused between ticks.
+	private final BroadPhase broadPhase;
+	private final BroadPhase.PairFn collisionFn;
+	private int[] xs = new int[0];
+	private int[] ys = new int[0];
+	// Only set for the parallel tick mode.
+	private final ParallelTick parallelTick;
+	// Position lists for each browser, updated on each tick.
+	private final AreaOfInterest areas;
+	@Getter(AccessLevel.PACKAGE)
+	private final PlayerMetrics metrics;
+	// Only used for the queued input mode.
+	private final boolean queuedInput;
+	private final Queue<Player> joinLeaveQueue = new ConcurrentLinkedQueue<>();
+	private final Queue<Player> keyQueue = new ConcurrentLinkedQueue<>();
+	// Published with the board lock held at the end of each tick, read without it.
+	private volatile BoardSnapshot snapshot = BoardSnapshot.EMPTY;
+	// Joins as "+id:name" and leaves as "-id" since the last tick, only used with the board lock held.
+	private final List<String> rosterEvents = new ArrayList<>();
+	// The snapshot published by the last tick with the roster events up to it.
+	private volatile TickRoster tickRoster = new TickRoster(BoardSnapshot.EMPTY, List.of());
+	// Added to the player ids, so they are unique over the regions of a partitioned board.
+	@Getter(AccessLevel.PACKAGE) @Setter(AccessLevel.PACKAGE)
+	private String idSuffix = "";
+
+	record TickRoster(BoardSnapshot snapshot, List<String> events) {
+	}
+
+	Board() {
+		this(DEFAULT_WIDTH, DEFAULT_HEIGHT, BroadPhaseType.GRID, 0);
+	}
+
+	Board(int width, int height, BroadPhaseType broadPhaseType) {
+		this(width, height, broadPhaseType, 0);
+	}
+
+	Board(int width, int height, BroadPhaseType broadPhaseType, int bandCount) {
+		this(width, height, broadPhaseType, bandCount, DEFAULT_WIDTH, DEFAULT_HEIGHT, InputMode.LOCKED,
+				new PlayerMetrics());
+	}
+
+	Board(int width, int height, BroadPhaseType broadPhaseType, int bandCount, int viewWidth, int viewHeight,
+			InputMode inputMode, PlayerMetrics metrics) {
+		this(width, height, broadPhaseType, bandCount, viewWidth, viewHeight, inputMode, metrics, new PlayerRandom(), null);
+	}
+
+	/*
+	 * bandCount > 1 allows animate() to split the board into bands for a parallel tick.
+	 * The view size is the default browser viewport, the area of interest is only enabled
+	 * if the board is bigger than that.  A replay needs the same random number generator as the
+	 * board which wrote the journal.
+	 */
+	Board(int width, int height, BroadPhaseType broadPhaseType, int bandCount, int viewWidth, int viewHeight,
+			InputMode inputMode, PlayerMetrics metrics, PlayerRandom rand, InputJournal journal) {
+		this.rand = rand;
+		this.journal = journal;
+		this.metrics = metrics;
+		this.width = width;
+		this.height = height;
+		this.maxX = width - playerSize - 1;
+		this.maxY = height - playerSize - 1;
+		this.broadPhase = broadPhaseType.create(width, height, checkPlayerSize);
+		this.collisionFn = (s1, s2) -> store.checkCollision(s1, s2, rand);
+		ParallelTick parallel = (bandCount > 1) ? new ParallelTick(this, broadPhaseType, bandCount) : null;
+		this.parallelTick = (parallel != null && parallel.getBandCount() > 1) ? parallel : null;
+		this.areas = new AreaOfInterest(this, viewWidth, viewHeight, metrics);
+		this.queuedInput = (inputMode == InputMode.QUEUED);
+	}
+
+	boolean isAreaOfInterest() {
+		return areas.isEnabled();
+	}
 	
+	// With queued input the player is only on the board after the next tick.
 	Player addPlayer(String name, boolean autonomous) throws InterruptedException {
-		boardLock.lockInterruptibly();
+		if (queuedInput) {
+			Player p = reservePlayer(name, autonomous);
+			joinLeaveQueue.add(p);
+			return p;
+		}
+		lockBoard();
 		try {
-			if (playerNameMap.containsKey(name)) {
-				throw new IllegalArgumentException("Name already in use: " + name);
-			}
-			Player p = new Player(this, name, autonomous);
-			playerMap.put(p.getId(), p);
-			playerNameMap.put(name, p);
-			playerList.add(p);
-			playerListChanged = true;
-			int x = rand.nextShort() % maxX;
-			int y = rand.nextShort() % maxY;
-			p.setXY(x, y);
+			Player p = reservePlayer(name, autonomous);
+			placePlayer(p);
 			return p;
 		} finally {
 			boardLock.unlock();
 		}
 	}
+
+	private Player reservePlayer(String name, boolean autonomous) {
+		Player p = new Player(this, name, autonomous);
+		if (playerNameMap.putIfAbsent(name, p) != null) {
+			throw new IllegalArgumentException("Name already in use: " + name);
+		}
+		playerMap.put(p.getId(), p);
+		if (autonomous) {
+			droneCount.incrementAndGet();
+		}
+		return p;
+	}
+
+	private void placePlayer(Player p) throws InterruptedException {
+		int slot = store.add(p, rand);
+		int x = rand.nextShort() % maxX;
+		int y = rand.nextShort() % maxY;
+		store.setXY(slot, x, y);
+		if (journal != null) {
+			journal.join(p, tick);
+		}
+		// With the area of interest the names come with the positions in view.
+		if (!p.isAuto() && !areas.isEnabled()) {
+			rosterEvents.add("+" + p.getId() + ":" + p.getName());
+		}
+	}
+
+	private void unplacePlayer(Player p) {
+		if (journal != null) {
+			journal.leave(p, tick);
+		}
+		if (!p.isAuto()) {
+			rosterEvents.add("-" + p.getId());
+		}
+		removeSlot(p.getSlot());
+	}
+
+	private void removeSlot(int slot) {
+		int last = store.count - 1;
+		store.remove(slot);
+		broadPhase.removed(slot, last);
+	}
+
+	private void applyKeys(Player p, int keys) {
+		if (journal != null) {
+			journal.key(p, keys, tick);
+		}
+		store.key(p.getSlot(), (keys & Player.KEY_UP) != 0, (keys & Player.KEY_DOWN) != 0,
+				(keys & Player.KEY_LEFT) != 0, (keys & Player.KEY_RIGHT) != 0);
+	}
 	
 	void removePlayer(String id) throws InterruptedException {
-		boardLock.lockInterruptibly();
+		if (queuedInput) {
+			Player p = (id != null) ? playerMap.remove(id) : null;
+			if (p != null) {
+				forgetPlayer(p);
+				// The same queue as the join, so a player is never removed before it is placed.
+				joinLeaveQueue.add(p);
+			}
+			return;
+		}
+		lockBoard();
 		try {
-			Player p = playerMap.remove(id);
+			Player p = (id != null) ? playerMap.remove(id) : null;
 			if (p != null) {
-				playerNameMap.remove(p.getName());
-				int index = Collections.binarySearch(playerList, id);
-				if (index >= 0) {
-					playerList.remove(index);
-					playerListChanged = true;
-				}
+				forgetPlayer(p);
+				unplacePlayer(p);
 			}
 		} finally {
 			boardLock.unlock();
 		}
 	}
 	
+	private void forgetPlayer(Player p) {
+		playerNameMap.remove(p.getName());
+		if (p.isAuto()) {
+			droneCount.decrementAndGet();
+		}
+	}
+
 	void playerKey(String playerId, boolean up, boolean down, boolean left, boolean right) throws InterruptedException {
-		boardLock.lockInterruptibly();
+		playerKey(playerId, Player.toKeys(up, down, left, right));
+	}
+
+	// The keys are Player.KEY_* bits.
+	void playerKey(String playerId, int keys) throws InterruptedException {
+		if (queuedInput) {
+			Player p = findPlayer(playerId);
+			if (p != null) {
+				// Only queued once until the tick takes the keys, later keys replace the earlier ones.
+				int previous = p.getPendingKeys().getAndSet(keys);
+				if (previous == Player.NO_KEYS) {
+					keyQueue.add(p);
+				} else {
+					metrics.getKeysCoalesced().increment();
+				}
+			}
+			return;
+		}
+		lockBoard();
 		try {
-			Player p = playerMap.get(playerId);
+			Player p = findPlayer(playerId);
 			if (p != null) {
-				p.key(up, down, left, right);
+				applyKeys(p, keys);
 			}
 		} finally {
 			boardLock.unlock();
 		}
 	}
 
-	// Supply info object to avoid allocating a new one while looping through playerList
-	boolean getPlayerInfo(String id, PlayerInfo info) throws InterruptedException {
-		boardLock.lockInterruptibly();
+	// Apply the queued joins, leaves and keys and publish the players, called by the tick thread.
+	void drainInput() throws InterruptedException {
+		lockBoard();
 		try {
-			Player p = playerMap.get(id);
-			return info.init(p);
+			applyInput();
+			snapshot = BoardSnapshot.of(store, snapshot);
 		} finally {
 			boardLock.unlock();
 		}
 	}
 
-	Player getPlayer(String id) throws InterruptedException {
-		boardLock.lockInterruptibly();
-		try {
-			return playerMap.get(id);
-		} finally {
-			boardLock.unlock();
+	private void applyInput() throws InterruptedException {
+		Player p;
+		while ((p = joinLeaveQueue.poll()) != null) {
+			if (p.getSlot() < 0) {
+				if (playerMap.get(p.getId()) == p) {
+					placePlayer(p);
+				}
+			} else {
+				unplacePlayer(p);
+			}
+		}
+		while ((p = keyQueue.poll()) != null) {
+			int keys = p.getPendingKeys().getAndSet(Player.NO_KEYS);
+			if (keys != Player.NO_KEYS && p.getSlot() >= 0) {
+				applyKeys(p, keys);
+			}
 		}
 	}
 
-	String getPlayerDesc(String id) throws InterruptedException {
-		boardLock.lockInterruptibly();
+	void setView(String playerId, Viewport view) throws InterruptedException {
+		lockBoard();
 		try {
-			Player p = playerMap.get(id);
-			return (p != null) ? p.toDesc() : null;
+			Player p = findPlayer(playerId);
+			if (p != null) {
+				p.setView(view);
+			}
 		} finally {
 			boardLock.unlock();
 		}
 	}
 
-	String getFirstPlayerId() throws InterruptedException {
-		boardLock.lockInterruptibly();
+	// The browsers of these players get all the players in view on the next tick, called by the timer thread.
+	void resetViews(List<String> playerIds) throws InterruptedException {
+		lockBoard();
 		try {
-			if (playerList.isEmpty()) {
-				return null;
+			for (String id : playerIds) {
+				Player p = findPlayer(id);
+				if (p != null) {
+					p.setTileRect(TileRect.NONE);
+				}
 			}
-			return playerList.getFirst().getId();
 		} finally {
 			boardLock.unlock();
 		}
 	}
 
+	/*
+	 * The reads below don't take the board lock, the positions are from the snapshot of the last
+	 * tick and the players which joined or left since then are only seen after the next tick.
+	 */
+
+	// Supply info object to avoid allocating a new one while looping through the players
+	boolean getPlayerInfo(String id, PlayerInfo info) {
+		return info.init(findPlayer(id), snapshot);
+	}
+
+	Player getPlayer(String id) {
+		return findPlayer(id);
+	}
+
+	// Null for a null id, a session whose join was rejected has no player id.
+	private Player findPlayer(String id) {
+		return (id != null) ? playerMap.get(id) : null;
+	}
+
+	String getPlayerDesc(String id) {
+		BoardSnapshot snap = snapshot;
+		int i = snap.indexOf(id);
+		return (i >= 0) ? snap.toDesc(i) : null;
+	}
+
+	String getFirstPlayerId() {
+		BoardSnapshot snap = snapshot;
+		return (snap.count() > 0) ? snap.getPlayer(0).getId() : null;
+	}
+
 	// Supply temporary info object to avoid allocating a new PlayerInfo object for each player.
-	void iteratePlayer(StringBuilder sb, PlayerInfo info, PlayerFn fn) throws InterruptedException {
-		boardLock.lockInterruptibly();
-		try {
-			for (Player p : playerList) {
-				if (info.init(p)) {
-					fn.process(sb, info);
-				}
-			}
-		} finally {
-			boardLock.unlock();
+	void iteratePlayer(StringBuilder sb, PlayerInfo info, PlayerFn fn) {
+		BoardSnapshot snap = snapshot;
+		for (int i = 0; i < snap.count(); i++) {
+			info.init(snap, i);
+			fn.process(sb, info);
 		}
 	}
 
-	List<Player> getAnimationPlayerList() throws InterruptedException {
-		boardLock.lockInterruptibly();
+	// Includes the queued joins and excludes the queued leaves.
+	// The players this board owns, including the joins not yet placed.
+	int getPlayerCount() {
+		return playerMap.size() - ghostCount.get();
+	}
+
+	int getDroneCount() {
+		return droneCount.get();
+	}
+
+	BoardSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	// For the tick thread after animate(), the snapshot may have been replaced since by drainInput().
+	TickRoster getTickRoster() {
+		return tickRoster;
+	}
+
+	AreaOfInterest animate() throws InterruptedException {
+		return animate(null, false);
+	}
+
+	AreaOfInterest animate(ForkJoinPool pool) throws InterruptedException {
+		return animate(pool, false);
+	}
+
+	/*
+	 * The pool is used for the parallel tick if this board has bands, null to run serially.
+	 * A keyframe has all the players in the position lists, otherwise only the ones which moved.
+	 * The returned position lists are only valid until the next call.
+	 */
+	AreaOfInterest animate(ForkJoinPool pool, boolean keyframe) throws InterruptedException {
+		return animate(pool, keyframe, null);
+	}
+
+	// A board partitioned over several nodes exchanges its border players with the other regions.
+	AreaOfInterest animate(ForkJoinPool pool, boolean keyframe, BoardRegion region) throws InterruptedException {
+		lockBoard();
 		try {
-			if (playerListChanged) {
-				playerListChanged = false;
-				animationPlayerList.clear();
-				animationPlayerList.addAll(playerList);
+			if (queuedInput) {
+				applyInput();
+			}
+			if (region != null) {
+				region.receive();
+			}
+			int count = store.count;
+			// log.info("animate " + count);
+			if (pool != null && parallelTick != null && count >= parallelMinPlayers) {
+				parallelTick.run(pool);
+			} else {
+				moveAndCollide(count);
 			}
-			return animationPlayerList;
+			if (region != null) {
+				region.send();
+			}
+			long start = System.nanoTime();
+			areas.update(store, keyframe);
+			snapshot = BoardSnapshot.of(store, snapshot);
+			tickRoster = new TickRoster(snapshot, takeRosterEvents());
+			metrics.getTickUpdate().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+			tick++;
+			return areas;
 		} finally {
 			boardLock.unlock();
 		}
 	}
-
-	int getPlayerCount() throws InterruptedException {
-		boardLock.lockInterruptibly();
-		try {
-			return playerList.size();
-		} finally {
-			boardLock.unlock();
+	
+	// Called with the board lock held.
+	private List<String> takeRosterEvents() {
+		if (rosterEvents.isEmpty()) {
+			return List.of();
 		}
+		List<String> events = List.copyOf(rosterEvents);
+		rosterEvents.clear();
+		return events;
 	}
 
-	List<String> animate() throws InterruptedException {
-		boardLock.lockInterruptibly();
+	// Writes the number of ticks done, so a replay runs them all.
+	void closeJournal() throws InterruptedException {
+		if (journal == null) {
+			return;
+		}
+		lockBoard();
 		try {
-			List<Player> animationList = getAnimationPlayerList();
-			// log.info("animate " + playerList.size());
-			for (int i = 0; i < animationList.size(); i++) {
-				animationList.get(i).move();
-			}
-			// Check for collisions
-			for (int i = 0; i < animationList.size(); i++) {
-				Player player1 = animationList.get(i);
-				for (int j = i + 1; j < animationList.size(); j++) {
-					Player player2 = animationList.get(j);
-					player1.checkCollision(player2);
-				}
-			}
-			List<String> result = new ArrayList<>(animationList.size());
-			for (int i = 0; i < animationList.size(); i++) {
-				result.add(animationList.get(i).toDesc());
-			}
-			return result;
+			journal.close(tick);
+		} catch (IOException e) {
+			log.error("Journal close failed: " + e.getMessage());
 		} finally {
 			boardLock.unlock();
 		}
 	}
-	
-	int randInt() throws InterruptedException {
-		return rand.nextInt();
+
+	// A player handed over from another region, or a ghost of one, called by BoardRegion with the board lock held.
+	Player placeEntity(String id, String name, boolean auto, int x, int y, int dx, int dy, boolean ghost)
+			throws InterruptedException {
+		Player p = new Player(this, id, name, auto);
+		// The counts are read without the lock, they are never under while the player map changes.
+		playerMap.put(id, p);
+		if (ghost) {
+			ghostCount.incrementAndGet();
+		} else if (auto) {
+			droneCount.incrementAndGet();
+		}
+		int slot = store.add(p, rand);
+		store.setXY(slot, x, y);
+		store.dx[slot] = dx;
+		store.dy[slot] = dy;
+		store.ghost[slot] = ghost;
+		// A browser's player arrives as a ghost, the drones are handed over.
+		if (!auto && !areas.isEnabled()) {
+			rosterEvents.add("+" + id + ":" + name);
+		}
+		return p;
 	}
 
-	byte randByte() throws InterruptedException {
-		return rand.nextByte();
+	// A player handed off or a ghost which has gone, the browsers erase it.  Called by BoardRegion
+	// with the board lock held.
+	void departEntity(Player p) {
+		rosterEvents.add("-" + p.getId());
+		dropEntity(p);
 	}
-	
-	boolean randBool() throws InterruptedException {
-		return rand.nextBool();
+
+	// Called by BoardRegion with the board lock held.
+	void dropEntity(Player p) {
+		if (store.ghost[p.getSlot()]) {
+			ghostCount.decrementAndGet();
+		} else if (p.isAuto()) {
+			droneCount.decrementAndGet();
+		}
+		playerMap.remove(p.getId(), p);
+		removeSlot(p.getSlot());
 	}
-	
-	byte[] randByteArray(int len) throws InterruptedException {
-		byte[] randSrc = new byte[len];
-		for (int i = 0; i < len; i++) {
-			randSrc[i] = randByte();
+
+	private void moveAndCollide(int count) throws InterruptedException {
+		long start = System.nanoTime();
+		for (int slot = 0; slot < count; slot++) {
+			store.move(slot, rand);
 		}
-		return randSrc;
+		long moved = System.nanoTime();
+		metrics.getTickMove().record(moved - start, TimeUnit.NANOSECONDS);
+		// Check for collisions, only the broad-phase candidates get the exact check.
+		// The collisions move the players, so the broad-phase gets a copy of the positions.
+		if (xs.length < count) {
+			xs = new int[Math.max(count, xs.length * 2)];
+			ys = new int[xs.length];
+		}
+		System.arraycopy(store.x, 0, xs, 0, count);
+		System.arraycopy(store.y, 0, ys, 0, count);
+		broadPhase.findPairs(count, xs, ys, checkPlayerSize, collisionFn);
+		metrics.getTickCollide().record(System.nanoTime() - moved, TimeUnit.NANOSECONDS);
+	}
+
+	// The wait for the lock is timed, it is how long the websocket threads hold up the tick and each other.
+	private void lockBoard() throws InterruptedException {
+		long start = System.nanoTime();
+		boardLock.lockInterruptibly();
+		metrics.getBoardLockWait().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+	}
+
+	// A generator for another thread, taken with the board lock held.
+	PlayerRandom splitRandom() {
+		return rand.split();
 	}
 }
@@ -0,0 +1,158 @@
+package samj.player.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import samj.player.cluster.BoardBus;
+import samj.player.cluster.BusMessage;
+import samj.player.cluster.BusMessage.Border;
+import samj.player.cluster.BusMessage.Entity;
+import samj.player.cluster.BusMessage.Handoff;
+
+/*
+ * One region of a board partitioned over several nodes.  Each node has a Board the size of the
+ * whole board, but only moves the players it owns.  The board is split into vertical strips, region
+ * i owns the drones with x in [i * width / regionCount, (i + 1) * width / regionCount).
+ *
+ * At the end of each tick the region hands the drones which moved out of its strip to the region
+ * which owns them now, and sends every other region the players it owns in or near that region's
+ * strip.  Those are ghosts in the other region: they are in its collision checks and sent to its
+ * browsers, but not moved by it.  A browser's player stays on the node the browser is connected to
+ * wherever it goes, so it is only ever a ghost on the other nodes.
+ *
+ * The messages from the other regions are applied at the start of the next tick, so the ghosts are
+ * a tick behind.  receive() and send() are called by the Board with the board lock held.
+ *
+ * Use of the BoardRegion object is restricted to its package -> NO public modifiers.
+ */
+class BoardRegion {
+
+	private final Board board;
+	private final int region;
+	private final int regionCount;
+	private final BoardBus bus;
+	// Players this close to a strip are sent to its region, so they can collide with its players.
+	private final int margin;
+	// Ghosts by the region which owns them.
+	private final List<Map<String, Player>> ghosts;
+	private final List<List<Entity>> borders;
+	private long tick = 0;
+
+	BoardRegion(Board board, int region, int regionCount, BoardBus bus) {
+		this.board = board;
+		this.region = region;
+		this.regionCount = regionCount;
+		this.bus = bus;
+		this.margin = board.checkPlayerSize * 2;
+		this.ghosts = new ArrayList<>(regionCount);
+		this.borders = new ArrayList<>(regionCount);
+		for (int r = 0; r < regionCount; r++) {
+			ghosts.add(new HashMap<>());
+			borders.add(new ArrayList<>());
+		}
+		board.setIdSuffix("-" + region);
+	}
+
+	AreaOfInterest animate(ForkJoinPool pool, boolean keyframe) throws InterruptedException {
+		return board.animate(pool, keyframe, this);
+	}
+
+	int regionOf(int x) {
+		return Math.clamp((long) x * regionCount / board.width, 0, regionCount - 1);
+	}
+
+	private int stripStart(int r) {
+		return r * board.width / regionCount;
+	}
+
+	private int stripEnd(int r) {
+		return (r + 1) * board.width / regionCount;
+	}
+
+	void receive() throws InterruptedException {
+		BusMessage message;
+		while ((message = bus.poll(region)) != null) {
+			switch (message) {
+				case Handoff handoff -> accept(handoff);
+				case Border border -> updateGhosts(border);
+			}
+		}
+	}
+
+	private void accept(Handoff handoff) throws InterruptedException {
+		Entity e = handoff.entity();
+		for (Map<String, Player> regionGhosts : ghosts) {
+			Player ghost = regionGhosts.remove(e.id());
+			if (ghost != null) {
+				board.dropEntity(ghost);
+			}
+		}
+		board.placeEntity(e.id(), e.name(), e.auto(), e.x(), e.y(), e.dx(), e.dy(), false);
+	}
+
+	private void updateGhosts(Border border) throws InterruptedException {
+		PlayerStore store = board.getStore();
+		Map<String, Player> old = ghosts.get(border.fromRegion());
+		Map<String, Player> current = HashMap.newHashMap(border.entities().size());
+		for (Entity e : border.entities()) {
+			Player p = old.remove(e.id());
+			if (p == null) {
+				if (board.getPlayer(e.id()) != null) {
+					// Already handed over to this region.
+					continue;
+				}
+				p = board.placeEntity(e.id(), e.name(), e.auto(), e.x(), e.y(), e.dx(), e.dy(), true);
+			} else {
+				int slot = p.getSlot();
+				store.moved[slot] |= (store.x[slot] != e.x() || store.y[slot] != e.y());
+				store.setXY(slot, e.x(), e.y());
+				store.dx[slot] = e.dx();
+				store.dy[slot] = e.dy();
+			}
+			current.put(e.id(), p);
+		}
+		for (Player p : old.values()) {
+			board.departEntity(p);
+		}
+		ghosts.set(border.fromRegion(), current);
+	}
+
+	void send() {
+		tick++;
+		PlayerStore store = board.getStore();
+		// Downwards, a handoff moves the last player into the slot which has already been done.
+		for (int slot = store.count - 1; slot >= 0; slot--) {
+			if (store.ghost[slot]) {
+				continue;
+			}
+			int x = store.x[slot];
+			int owner = regionOf(x);
+			Player p = store.players[slot];
+			if (owner != region && p.isAuto()) {
+				bus.send(owner, new Handoff(region, tick, toEntity(store, slot)));
+				board.departEntity(p);
+				continue;
+			}
+			for (int r = 0; r < regionCount; r++) {
+				if (r != region && x >= stripStart(r) - margin && x < stripEnd(r) + margin) {
+					borders.get(r).add(toEntity(store, slot));
+				}
+			}
+		}
+		// Sent even when empty, so the other region drops the ghosts which have gone.
+		for (int r = 0; r < regionCount; r++) {
+			if (r != region) {
+				bus.send(r, new Border(region, tick, List.copyOf(borders.get(r))));
+				borders.get(r).clear();
+			}
+		}
+	}
+
+	private Entity toEntity(PlayerStore store, int slot) {
+		Player p = store.players[slot];
+		return new Entity(p.getId(), p.getName(), p.isAuto(), store.x[slot], store.y[slot], store.dx[slot], store.dy[slot]);
+	}
+}
@@ -0,0 +1,120 @@
+package samj.player.service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import samj.player.metrics.PlayerMetrics;
+import samj.player.util.PlayerRandom;
+
+/*
+ * Headless replay of an InputJournal.  A new Board with the journal's seed and settings is given
+ * the joins, leaves and keys at the ticks they were first applied, and the ticks are run back to
+ * back without sleeping, sending or the area of interest, so the players end up where they were.
+ *
+ * The input is applied with the board lock as it comes, whatever input mode wrote the journal,
+ * because the journal has the order the board applied it in.
+ *
+ * Run from the jar with:
+ *   java -cp player.jar -Dloader.main=samj.player.service.BoardReplay \
+ *       org.springframework.boot.loader.launch.PropertiesLauncher <journal>
+ *
+ * Use of the BoardReplay object is restricted to its package -> NO public modifiers, but main().
+ */
+class BoardReplay implements InputJournal.Visitor {
+
+	record Result(long ticks, long inputs, int players, long nanos, long maxTickNanos, long checksum) {
+	}
+
+	private final Board board;
+	private final ForkJoinPool pool;
+	// Players by journal handle, null after they leave.
+	private final List<Player> players = new ArrayList<>();
+	private long inputs = 0;
+	private long nanos = 0;
+	private long maxTickNanos = 0;
+
+	private BoardReplay(InputJournal.Header header, ForkJoinPool pool) {
+		// The viewport is the whole board, which turns off the area of interest.
+		this.board = new Board(header.width(), header.height(), header.broadPhase(), header.bands(), header.width(),
+				header.height(), InputMode.LOCKED, new PlayerMetrics(), new PlayerRandom(header.seed()), null);
+		this.pool = pool;
+	}
+
+	// The pool is only used if the journal was written by a board with bands, null to run serially.
+	static Result run(Path path, ForkJoinPool pool) throws IOException, InterruptedException {
+		BoardReplay replay = new BoardReplay(InputJournal.read(path, null), pool);
+		InputJournal.read(path, replay);
+		Board board = replay.board;
+		return new Result(board.getTick(), replay.inputs, board.getPlayerCount(), replay.nanos, replay.maxTickNanos,
+				checksum(board.getSnapshot()));
+	}
+
+	// The same for boards with the players in the same order at the same positions.
+	static long checksum(BoardSnapshot snap) {
+		long sum = snap.count();
+		for (int i = 0; i < snap.count(); i++) {
+			sum = sum * 31 + snap.getX(i);
+			sum = sum * 31 + snap.getY(i);
+		}
+		return sum;
+	}
+
+	@Override
+	public void tick(long tick) throws InterruptedException {
+		while (board.getTick() < tick) {
+			long start = System.nanoTime();
+			board.animate(pool, false);
+			long time = System.nanoTime() - start;
+			nanos += time;
+			maxTickNanos = Math.max(maxTickNanos, time);
+		}
+	}
+
+	@Override
+	public void join(int handle, String name, boolean auto) throws InterruptedException {
+		inputs++;
+		Player p = board.addPlayer(name, auto);
+		while (players.size() <= handle) {
+			players.add(null);
+		}
+		players.set(handle, p);
+	}
+
+	@Override
+	public void leave(int handle) throws InterruptedException {
+		inputs++;
+		Player p = players.set(handle, null);
+		board.removePlayer(p.getId());
+	}
+
+	@Override
+	public void key(int handle, int keys) throws InterruptedException {
+		inputs++;
+		board.playerKey(players.get(handle).getId(), keys);
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length != 1) {
+			System.err.println("Usage: BoardReplay <journal>");
+			System.exit(2);
+		}
+		Path path = Path.of(args[0]);
+		InputJournal.Header header = InputJournal.read(path, null);
+		ForkJoinPool pool = (header.bands() > 1) ?
+				new ForkJoinPool(Math.min(header.bands(), Runtime.getRuntime().availableProcessors())) : null;
+		Result result = run(path, pool);
+		long millis = TimeUnit.NANOSECONDS.toMillis(result.nanos());
+		System.out.println(path + ": " + result.ticks() + " ticks, " + result.inputs() + " inputs, " +
+				result.players() + " players at the end");
+		System.out.println("Tick time " + millis + "ms, mean " +
+				((result.ticks() > 0) ? result.nanos() / result.ticks() / 1000 : 0) + "us, max " +
+				result.maxTickNanos() / 1000 + "us, checksum " + Long.toHexString(result.checksum()));
+		if (pool != null) {
+			pool.shutdown();
+		}
+	}
+}
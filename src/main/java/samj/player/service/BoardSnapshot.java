@@ -0,0 +1,85 @@
+package samj.player.service;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Immutable copy of the board, published by the tick through a volatile so the read APIs don't
+ * take the board lock.  The roster (the players in slot order, their handles and the index by id)
+ * is shared with the previous snapshot until a player joins or leaves, the positions are copied on
+ * every tick.
+ *
+ * A reader may keep a snapshot across ticks, so the arrays are never reused.
+ *
+ * Use of the BoardSnapshot object is restricted to its package -> NO public modifiers.
+ */
+final class BoardSnapshot {
+
+	static final BoardSnapshot EMPTY = new BoardSnapshot(0, new Player[0], new int[0], Map.of(), new int[0], new int[0]);
+
+	private final int rosterVersion;
+	private final Player[] players;
+	private final int[] handles;
+	private final Map<String, Integer> index;
+	private final int[] x;
+	private final int[] y;
+
+	private BoardSnapshot(int rosterVersion, Player[] players, int[] handles, Map<String, Integer> index, int[] x,
+			int[] y) {
+		this.rosterVersion = rosterVersion;
+		this.players = players;
+		this.handles = handles;
+		this.index = index;
+		this.x = x;
+		this.y = y;
+	}
+
+	// Called with the board lock held.
+	static BoardSnapshot of(PlayerStore store, BoardSnapshot previous) {
+		int count = store.count;
+		Player[] players = previous.players;
+		int[] handles = previous.handles;
+		Map<String, Integer> index = previous.index;
+		if (store.rosterVersion != previous.rosterVersion) {
+			players = Arrays.copyOf(store.players, count);
+			handles = Arrays.copyOf(store.handle, count);
+			index = HashMap.newHashMap(count);
+			for (int i = 0; i < count; i++) {
+				index.put(players[i].getId(), i);
+			}
+		}
+		return new BoardSnapshot(store.rosterVersion, players, handles, index, Arrays.copyOf(store.x, count),
+				Arrays.copyOf(store.y, count));
+	}
+
+	int count() {
+		return players.length;
+	}
+
+	// -1 if the player wasn't on the board when the snapshot was taken.
+	int indexOf(String id) {
+		Integer i = index.get(id);
+		return (i != null) ? i : -1;
+	}
+
+	Player getPlayer(int i) {
+		return players[i];
+	}
+
+	int getHandle(int i) {
+		return handles[i];
+	}
+
+	int getX(int i) {
+		return x[i];
+	}
+
+	int getY(int i) {
+		return y[i];
+	}
+
+	String toDesc(int i) {
+		return players[i].getId() + '\t' + x[i] + '\t' + y[i];
+	}
+}
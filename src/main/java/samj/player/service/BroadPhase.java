@@ -0,0 +1,26 @@
+package samj.player.service;
+
+/*
+ * Broad-phase collision detection narrows down the player pairs which need the exact
+ * collision check.  Implementations work on co-ordinate arrays indexed the same as the
+ * animation player list, and report each candidate pair once as (i, j) with i < j.
+ *
+ * Use of the BroadPhase objects is restricted to the Board -> NO public modifiers.
+ */
+interface BroadPhase {
+
+	@FunctionalInterface
+	interface PairFn {
+		void process(int i, int j) throws InterruptedException;
+	}
+
+	/*
+	 * Report every pair whose X and Y distances are both within range.  Pairs further apart
+	 * may also be reported, the caller still does the exact check.
+	 */
+	void findPairs(int count, int[] xs, int[] ys, int range, PairFn fn) throws InterruptedException;
+
+	// The player in the last slot was moved into the removed player's slot, for the state kept between ticks.
+	default void removed(int slot, int last) {
+	}
+}
@@ -0,0 +1,17 @@
+package samj.player.service;
+
+// Broad-phase collision detection strategies for Board.animate().
+public enum BroadPhaseType {
+
+	BRUTE,	// check every pair, O(n^2)
+	GRID,	// uniform grid with cells the size of a player
+	SWEEP;	// sweep-and-prune along the X axis
+
+	BroadPhase create(int width, int height, int cellSize) {
+		return switch (this) {
+			case BRUTE -> new BruteForceBroadPhase();
+			case GRID -> new GridBroadPhase(width, height, cellSize);
+			case SWEEP -> new SweepBroadPhase();
+		};
+	}
+}
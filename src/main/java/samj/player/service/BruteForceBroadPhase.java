@@ -0,0 +1,16 @@
+package samj.player.service;
+
+/*
+ * Every pair is a candidate, O(n^2).  Fastest for a handful of players.
+ */
+class BruteForceBroadPhase implements BroadPhase {
+
+	@Override
+	public void findPairs(int count, int[] xs, int[] ys, int range, PairFn fn) throws InterruptedException {
+		for (int i = 0; i < count; i++) {
+			for (int j = i + 1; j < count; j++) {
+				fn.process(i, j);
+			}
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package samj.player.service;
+
+/*
+ * Uniform grid spatial hash.  The cell size is at least the collision range, so a player
+ * can only collide with players in its own cell or the 8 cells around it.  Each cell is
+ * paired with itself and 4 "forward" neighbours so each pair of cells is visited once.
+ */
+class GridBroadPhase implements BroadPhase {
+
+	private final SpatialGrid grid;
+
+	GridBroadPhase(int width, int height, int cellSize) {
+		this.grid = new SpatialGrid(width, height, cellSize, cellSize);
+	}
+
+	@Override
+	public void findPairs(int count, int[] xs, int[] ys, int range, PairFn fn) throws InterruptedException {
+		if (range > grid.cellWidth) {
+			throw new IllegalArgumentException("Range " + range + " larger than cell size " + grid.cellWidth);
+		}
+		grid.build(count, xs, ys);
+		for (int i = 0; i < count; i++) {
+			int cell = grid.itemCell(i);
+			int cx = cell % grid.cols;
+			int cy = cell / grid.cols;
+			// Same cell, items are in index order so only look at the later ones.
+			for (int k = grid.cellStart(cell); k < grid.cellEnd(cell); k++) {
+				int j = grid.item(k);
+				if (j > i) {
+					fn.process(i, j);
+				}
+			}
+			checkCell(i, cx + 1, cy, fn);
+			checkCell(i, cx - 1, cy + 1, fn);
+			checkCell(i, cx, cy + 1, fn);
+			checkCell(i, cx + 1, cy + 1, fn);
+		}
+	}
+
+	private void checkCell(int i, int cx, int cy, PairFn fn) throws InterruptedException {
+		if (cx < 0 || cx >= grid.cols || cy >= grid.rows) {
+			return;
+		}
+		int cell = cy * grid.cols + cx;
+		for (int k = grid.cellStart(cell); k < grid.cellEnd(cell); k++) {
+			int j = grid.item(k);
+			if (i < j) {
+				fn.process(i, j);
+			} else {
+				fn.process(j, i);
+			}
+		}
+	}
+}
@@ -0,0 +1,206 @@
+package samj.player.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import lombok.extern.apachecommons.CommonsLog;
+
+/*
+ * Append-only journal of a board's input: the random number seed, and the joins, leaves and keys
+ * in the order the board applied them, with the tick each was applied before.  BoardReplay runs
+ * a journal through a new Board to get the same positions again.
+ *
+ * The file is memory-mapped a chunk at a time, so a write is a few puts into the page cache and
+ * the operating system writes it out, even if the JVM dies.  The unwritten end of the last chunk
+ * is zeros, which reads as the end of the journal.  The tick number is only written when it
+ * changes, and the players are referred to by a handle given out on the join.
+ *
+ * The Board writes with the board lock held, so the journal has no lock of its own.  An I/O error
+ * stops the journal, not the board.
+ *
+ * Use of the InputJournal object is restricted to its package -> NO public modifiers.
+ */
+@CommonsLog
+class InputJournal implements Closeable {
+
+	static final int MAGIC = 0x504a4e4c; // "PJNL"
+	static final int VERSION = 1;
+
+	// Record types, END is the zeros after the last record.
+	static final byte END = 0;
+	static final byte TICK = 1;
+	static final byte JOIN = 2;
+	static final byte LEAVE = 3;
+	static final byte KEY = 4;
+
+	static final int CHUNK_BYTES = 1 << 20;
+
+	// What a new board needs to replay the journal.
+	record Header(long seed, int width, int height, BroadPhaseType broadPhase, int bands) {
+	}
+
+	// Called for each record by read(), in the journal's order.
+	interface Visitor {
+		void tick(long tick) throws InterruptedException;
+
+		void join(int handle, String name, boolean auto) throws InterruptedException;
+
+		void leave(int handle) throws InterruptedException;
+
+		void key(int handle, int keys) throws InterruptedException;
+	}
+
+	private final Path path;
+	private final FileChannel channel;
+	private final int chunkBytes;
+	private MappedByteBuffer buffer;
+	// File offset of the buffer.
+	private long chunkStart = 0;
+	private long tick = 0;
+	private int nextHandle = 0;
+	private boolean failed = false;
+
+	private InputJournal(Path path, FileChannel channel, int chunkBytes) {
+		this.path = path;
+		this.channel = channel;
+		this.chunkBytes = chunkBytes;
+	}
+
+	static InputJournal create(Path path, Header header) throws IOException {
+		return create(path, header, CHUNK_BYTES);
+	}
+
+	static InputJournal create(Path path, Header header, int chunkBytes) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		InputJournal journal = new InputJournal(path, channel, chunkBytes);
+		try {
+			journal.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(chunkBytes, 64));
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		MappedByteBuffer b = journal.buffer;
+		b.putInt(MAGIC);
+		b.putInt(VERSION);
+		b.putLong(header.seed());
+		b.putInt(header.width());
+		b.putInt(header.height());
+		b.put((byte) header.broadPhase().ordinal());
+		b.putShort((short) header.bands());
+		return journal;
+	}
+
+	void join(Player p, long tick) {
+		byte[] name = p.getName().getBytes(StandardCharsets.UTF_8);
+		p.setJournalHandle(nextHandle++);
+		if (reserve(tick, 10 + name.length)) {
+			buffer.put(JOIN);
+			buffer.putInt(p.getJournalHandle());
+			buffer.put((byte) (p.isAuto() ? 1 : 0));
+			buffer.putInt(name.length);
+			buffer.put(name);
+		}
+	}
+
+	void leave(Player p, long tick) {
+		if (reserve(tick, 5)) {
+			buffer.put(LEAVE);
+			buffer.putInt(p.getJournalHandle());
+		}
+	}
+
+	void key(Player p, int keys, long tick) {
+		if (reserve(tick, 6)) {
+			buffer.put(KEY);
+			buffer.putInt(p.getJournalHandle());
+			buffer.put((byte) keys);
+		}
+	}
+
+	// Writes the tick if it has changed, and maps the next chunk if the record doesn't fit.
+	private boolean reserve(long tick, int size) {
+		if (failed) {
+			return false;
+		}
+		int needed = (tick != this.tick) ? size + 9 : size;
+		if (buffer.remaining() < needed) {
+			try {
+				chunkStart += buffer.position();
+				buffer = channel.map(FileChannel.MapMode.READ_WRITE, chunkStart, Math.max(chunkBytes, needed));
+			} catch (IOException e) {
+				log.error("Journal " + path + " stopped: " + e.getMessage());
+				failed = true;
+				return false;
+			}
+		}
+		if (tick != this.tick) {
+			buffer.put(TICK);
+			buffer.putLong(tick);
+			this.tick = tick;
+		}
+		return true;
+	}
+
+	// The tick the board has got to, so the replay runs the ticks after the last input.
+	void close(long tick) throws IOException {
+		if (reserve(tick, 0)) {
+			buffer.force();
+		}
+		failed = true;
+		channel.close();
+	}
+
+	@Override
+	public void close() throws IOException {
+		close(tick);
+	}
+
+	static Header read(Path path, Visitor visitor) throws IOException, InterruptedException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Journal too big: " + path);
+			}
+			MappedByteBuffer b = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (b.getInt() != MAGIC || b.getInt() != VERSION) {
+				throw new IOException("Not a version " + VERSION + " journal: " + path);
+			}
+			Header header = new Header(b.getLong(), b.getInt(), b.getInt(), BroadPhaseType.values()[b.get()], b.getShort());
+			if (visitor == null) {
+				return header;
+			}
+			try {
+				byte type;
+				while (b.hasRemaining() && (type = b.get()) != END) {
+					switch (type) {
+						case TICK -> visitor.tick(b.getLong());
+						case JOIN -> {
+							int handle = b.getInt();
+							boolean auto = b.get() != 0;
+							int length = b.getInt();
+							if (length < 0 || length > b.remaining()) {
+								throw new BufferUnderflowException();
+							}
+							byte[] name = new byte[length];
+							b.get(name);
+							visitor.join(handle, new String(name, StandardCharsets.UTF_8), auto);
+						}
+						case LEAVE -> visitor.leave(b.getInt());
+						case KEY -> visitor.key(b.getInt(), b.get());
+						default -> throw new IOException("Bad journal record " + type + " at " + (b.position() - 1));
+					}
+				}
+			} catch (BufferUnderflowException e) {
+				// The last record was cut off.
+				log.warn("Journal " + path + " ends part way through a record");
+			}
+			return header;
+		}
+	}
+}
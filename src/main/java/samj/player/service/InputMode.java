@@ -0,0 +1,8 @@
+package samj.player.service;
+
+// How joins, leaves and key presses get to the Board.
+public enum InputMode {
+
+	LOCKED,		// applied straight away on the caller's thread, with the board lock
+	QUEUED;		// queued without a lock and applied by the tick thread at the start of the next tick
+}
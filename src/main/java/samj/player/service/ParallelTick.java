@@ -0,0 +1,248 @@
+package samj.player.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import samj.player.metrics.PlayerMetrics;
+import samj.player.util.PlayerRandom;
+
+/*
+ * Parallel move and collide for the board.  The board is split into horizontal bands by the
+ * player Y positions at the start of the tick.  Each band moves its own players and checks
+ * the collisions between them on the ForkJoinPool, no player is touched by 2 bands.  Then a
+ * short serial pass checks the pairs near a band edge which belong to different bands.
+ *
+ * The board lock is held by the caller for the whole tick.  Each band has its own random
+ * number generator, so the bands don't share any state.
+ *
+ * The bands run at the same time, so the tick's move time is the slowest band's move, and its
+ * collide time is the slowest band's collide with the edge pass.
+ *
+ * Use of the ParallelTick object is restricted to the Board -> NO public modifiers.
+ */
+class ParallelTick {
+
+	private final PlayerStore store;
+	private final PlayerMetrics metrics;
+	private final int range;
+	private final int bandHeight;
+	// Players this close to a band edge are checked against the next band.
+	private final int edgeMargin;
+	private final Band[] bands;
+	private final List<Callable<Void>> tasks;
+
+	private final PlayerRandom edgeRand;
+	private final BroadPhase edgePhase = new SweepBroadPhase();
+	private final BroadPhase.PairFn edgeFn = this::checkEdgePair;
+	private int[] edgeSlots = new int[0];
+	private int[] edgeBands = new int[0];
+	private int[] edgeXs = new int[0];
+	private int[] edgeYs = new int[0];
+
+	ParallelTick(Board board, BroadPhaseType broadPhaseType, int bandCount) {
+		this.store = board.getStore();
+		this.metrics = board.getMetrics();
+		this.range = board.checkPlayerSize;
+		this.edgeMargin = 2 * board.checkPlayerSize;
+		this.edgeRand = board.splitRandom();
+		// Bands thinner than the edge margins would send every player to the serial pass.
+		int maxBands = Math.max(1, board.height / (2 * edgeMargin));
+		int count = Math.clamp(bandCount, 1, maxBands);
+		this.bandHeight = (board.height + count - 1) / count;
+		this.bands = new Band[count];
+		this.tasks = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			// The band grid has room for players which move a little outside the band.
+			int top = i * bandHeight - edgeMargin;
+			bands[i] = new Band(i, top, broadPhaseType.create(board.width, bandHeight + 2 * edgeMargin, range),
+					board.splitRandom());
+			tasks.add(bands[i]);
+		}
+	}
+
+	int getBandCount() {
+		return bands.length;
+	}
+
+	void run(ForkJoinPool pool) throws InterruptedException {
+		runBands(pool);
+		long start = System.nanoTime();
+		checkEdges();
+		long moveNanos = 0;
+		long collideNanos = 0;
+		for (Band band : bands) {
+			moveNanos = Math.max(moveNanos, band.moveNanos);
+			collideNanos = Math.max(collideNanos, band.collideNanos);
+		}
+		metrics.getTickMove().record(moveNanos, TimeUnit.NANOSECONDS);
+		metrics.getTickCollide().record(collideNanos + System.nanoTime() - start, TimeUnit.NANOSECONDS);
+	}
+
+	// Package access for the tests, the bands' moves and collisions without the edge pass.
+	void runBands(ForkJoinPool pool) throws InterruptedException {
+		int count = store.count;
+		for (Band band : bands) {
+			band.clear();
+		}
+		// Band by Y, in slot order so pairs keep the lower slot first.
+		for (int slot = 0; slot < count; slot++) {
+			int index = Math.clamp(store.y[slot] / bandHeight, 0, bands.length - 1);
+			bands[index].add(slot);
+		}
+		List<Future<Void>> futures = pool.invokeAll(tasks);
+		for (Future<Void> future : futures) {
+			try {
+				future.get();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof InterruptedException ie) {
+					throw ie;
+				}
+				throw new IllegalStateException("Band tick failed: " + e.getCause().getMessage(), e.getCause());
+			}
+		}
+		for (Band band : bands) {
+			band.selectEdges();
+		}
+	}
+
+	// Package access for the tests, true if the edge pass checks the player against the other bands.
+	boolean isEdge(int slot) {
+		for (Band band : bands) {
+			for (int k = 0; k < band.edgeCount; k++) {
+				if (band.edges[k] == slot) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	// Serial pass for the pairs which straddle a band edge, package access for the tests.
+	void checkEdges() throws InterruptedException {
+		int edgeCount = 0;
+		for (Band band : bands) {
+			edgeCount += band.edgeCount;
+		}
+		if (edgeSlots.length < edgeCount) {
+			int len = Math.max(edgeCount, edgeSlots.length * 2);
+			edgeSlots = new int[len];
+			edgeBands = new int[len];
+			edgeXs = new int[len];
+			edgeYs = new int[len];
+		}
+		int n = 0;
+		for (Band band : bands) {
+			for (int k = 0; k < band.edgeCount; k++) {
+				int slot = band.edges[k];
+				edgeSlots[n] = slot;
+				edgeBands[n] = band.index;
+				edgeXs[n] = store.x[slot];
+				edgeYs[n] = store.y[slot];
+				n++;
+			}
+		}
+		edgePhase.findPairs(n, edgeXs, edgeYs, range, edgeFn);
+	}
+
+	private void checkEdgePair(int i, int j) {
+		if (edgeBands[i] == edgeBands[j]) {
+			// Already checked by the band.
+			return;
+		}
+		int s1 = edgeSlots[i];
+		int s2 = edgeSlots[j];
+		store.checkCollision(Math.min(s1, s2), Math.max(s1, s2), edgeRand);
+	}
+
+	private class Band implements Callable<Void> {
+		private final int index;
+		private final int top;
+		private final BroadPhase broadPhase;
+		private final PlayerRandom rand;
+		private final BroadPhase.PairFn collisionFn = this::checkPair;
+		private int[] slots = new int[16];
+		private int count = 0;
+		private int[] xs = new int[16];
+		private int[] ys = new int[16];
+		private int[] edges = new int[16];
+		private int edgeCount = 0;
+		private int minY = 0;
+		private int maxY = 0;
+		// Set by the band's task, read after invokeAll().
+		private long moveNanos = 0;
+		private long collideNanos = 0;
+
+		Band(int index, int top, BroadPhase broadPhase, PlayerRandom rand) {
+			this.index = index;
+			this.top = top;
+			this.broadPhase = broadPhase;
+			this.rand = rand;
+		}
+
+		void clear() {
+			count = 0;
+			edgeCount = 0;
+		}
+
+		void add(int slot) {
+			if (count == slots.length) {
+				int len = slots.length * 2;
+				slots = Arrays.copyOf(slots, len);
+				xs = new int[len];
+				ys = new int[len];
+				edges = new int[len];
+			}
+			slots[count++] = slot;
+		}
+
+		@Override
+		public Void call() throws InterruptedException {
+			long start = System.nanoTime();
+			for (int k = 0; k < count; k++) {
+				store.move(slots[k], rand);
+			}
+			long moved = System.nanoTime();
+			moveNanos = moved - start;
+			for (int k = 0; k < count; k++) {
+				int slot = slots[k];
+				xs[k] = store.x[slot];
+				ys[k] = store.y[slot] - top;
+			}
+			broadPhase.findPairs(count, xs, ys, range, collisionFn);
+			// The band's extent after the collisions, which can push players out of the band.
+			minY = Integer.MAX_VALUE;
+			maxY = Integer.MIN_VALUE;
+			for (int k = 0; k < count; k++) {
+				int y = store.y[slots[k]];
+				minY = Math.min(minY, y);
+				maxY = Math.max(maxY, y);
+			}
+			collideNanos = System.nanoTime() - moved;
+			return null;
+		}
+
+		// Players in range of another band's extent, wherever the collisions left them.
+		void selectEdges() {
+			for (int k = 0; k < count; k++) {
+				int slot = slots[k];
+				int y = store.y[slot];
+				for (Band other : bands) {
+					if (other != this && other.count > 0 && y >= other.minY - range && y <= other.maxY + range) {
+						edges[edgeCount++] = slot;
+						break;
+					}
+				}
+			}
+		}
+
+		private void checkPair(int i, int j) {
+			store.checkCollision(slots[i], slots[j], rand);
+		}
+	}
+}
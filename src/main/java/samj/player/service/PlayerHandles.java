@@ -0,0 +1,39 @@
+package samj.player.service;
+
+import java.util.Arrays;
+
+/*
+ * Small integer handles for the players on a board, the id of a player in the binary position
+ * frames.  A player keeps its handle while it is on the board, unlike its slot which changes
+ * when another player is removed, so the browser only needs the player id once.
+ *
+ * The handles of removed players go on a free list and are given out again first, so the
+ * handles stay below the most players there have been on the board at once.  A reused handle
+ * is sent with the new player's id, as for any player new to a browser.
+ *
+ * Only used by the PlayerStore, with the board lock held.
+ *
+ * Use of the PlayerHandles object is restricted to its package -> NO public modifiers.
+ */
+class PlayerHandles {
+
+	private int[] free = new int[16];
+	private int freeCount = 0;
+	private int next = 0;
+
+	int acquire() {
+		return (freeCount > 0) ? free[--freeCount] : next++;
+	}
+
+	void release(int handle) {
+		if (freeCount == free.length) {
+			free = Arrays.copyOf(free, free.length * 2);
+		}
+		free[freeCount++] = handle;
+	}
+
+	// One more than the highest handle given out.
+	int limit() {
+		return next;
+	}
+}
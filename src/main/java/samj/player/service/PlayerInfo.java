@@ -1,27 +1,50 @@
 package samj.player.service;
 
-import lombok.Data;
-
-@Data
+/*
+ * Read-only view of a player.  The id and name are fixed, the position comes from the board
+ * snapshot of the last tick, so it is read without the board lock.  A player which joined since
+ * the last tick has no position yet.
+ */
 public class PlayerInfo {
-	private String id;
-	private String name;
-	private boolean auto;
-	private boolean moved;
-	
-	public boolean init(Player p) {
-		if (p != null) {
-			this.id = p.getId();
-			this.name = p.getName();
-			this.auto = p.isAuto();
-			this.moved = p.isMoved();
-			return true;
-		} else {
-			this.id = null;
-			this.name = null;
-			this.auto = false;
-			this.moved = false;
-			return false;
-		}
+	private Player player;
+	private BoardSnapshot snapshot;
+	private int index = -1;
+
+	boolean init(Player p, BoardSnapshot snapshot) {
+		this.player = p;
+		this.snapshot = snapshot;
+		this.index = (p != null) ? snapshot.indexOf(p.getId()) : -1;
+		return (p != null);
+	}
+
+	boolean init(BoardSnapshot snapshot, int index) {
+		this.player = snapshot.getPlayer(index);
+		this.snapshot = snapshot;
+		this.index = index;
+		return true;
+	}
+
+	public String getId() {
+		return (player != null) ? player.getId() : null;
+	}
+
+	public String getName() {
+		return (player != null) ? player.getName() : null;
+	}
+
+	public boolean isAuto() {
+		return (player != null) && player.isAuto();
+	}
+
+	public int getX() {
+		return (index >= 0) ? snapshot.getX(index) : 0;
+	}
+
+	public int getY() {
+		return (index >= 0) ? snapshot.getY(index) : 0;
+	}
+
+	public String toDesc() {
+		return (index >= 0) ? snapshot.toDesc(index) : null;
 	}
 }
@@ -1,171 +1,296 @@
 package samj.player.service;
 
-import java.time.Duration;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 
-import lombok.RequiredArgsConstructor;
 import lombok.extern.apachecommons.CommonsLog;
+import samj.player.cluster.SocketBoardBus;
+import samj.player.config.PlayerProperties;
+import samj.player.metrics.PlayerMetrics;
+import samj.player.util.PlayerRandom;
 import samj.player.util.PlayerUtil;
 import samj.player.ws.PlayerWebSocketHandler;
 import samj.player.ws.PlayerWebSocketSession;
+import samj.player.ws.PreparedFrame;
 
 /*
  * Ensure the Player objects are restricted to Board and this class.
+ *
+ * The service is the room manager.  Each browser is placed in a room on connect, the one it asked
+ * for in the handshake or else the room with the fewest players.  A room which goes over
+ * roomSplitPlayers is split: a new room is opened and half of the browsers are told to reconnect
+ * to it.  The first room is always open, the others are closed when their last player leaves.
  */
-@RequiredArgsConstructor
 @CommonsLog
 public class PlayerService {
-	private final ExecutorService virtualThreadExecutor;
-
-	private final Board board = new Board();
+	// Arrow keys as bits, for playerKey().
+	public static final int KEY_UP = Player.KEY_UP;
+	public static final int KEY_DOWN = Player.KEY_DOWN;
+	public static final int KEY_LEFT = Player.KEY_LEFT;
+	public static final int KEY_RIGHT = Player.KEY_RIGHT;
 
-	private static final int DRONE_COUNT = 5;
+	private final ExecutorService virtualThreadExecutor;
+	private final PlayerProperties properties;
+	private final PlayerMetrics metrics;
+	// Only set for the parallel tick mode.
+	private final ForkJoinPool tickPool;
+	private final int bands;
+	// Players in a room before it is split, 0 to never split.
+	private final int roomSplitPlayers;
+	private final int maxRooms;
+	// Only set for a board partitioned over several nodes, the first room is this node's region.
+	private final SocketBoardBus bus;
 
-	private static final int DESC_BUFFER_LEN = 256;
+	// Guards the room placement, splitting and closing.
+	private final ReentrantLock roomLock = new ReentrantLock();
+	private final Map<String, Room> rooms = new ConcurrentHashMap<>();
+	private final Map<String, Room> playerRooms = new ConcurrentHashMap<>();
+	private final AtomicInteger roomIds = new AtomicInteger(0);
+	private Room firstRoom = null;
 
 	// Wired up later to avoid circular dependencies.
 	private PlayerWebSocketHandler webSocketHandler = null;
 
-	private final ReentrantLock taskLock = new ReentrantLock();
-	private volatile Future<?> task = null;
+	public PlayerService(ExecutorService virtualThreadExecutor, PlayerProperties properties, PlayerMetrics metrics) {
+		this.virtualThreadExecutor = virtualThreadExecutor;
+		this.properties = properties;
+		this.metrics = metrics;
+		int cores = Runtime.getRuntime().availableProcessors();
+		if (properties.getTickMode() == TickMode.PARALLEL) {
+			this.bands = (properties.getBands() > 0) ? properties.getBands() : cores;
+			this.tickPool = new ForkJoinPool(Math.min(bands, cores));
+		} else {
+			this.bands = 0;
+			this.tickPool = null;
+		}
+		this.roomSplitPlayers = Math.max(0, properties.getRoomSplitPlayers());
+		this.bus = createBus(properties.getRegion());
+		// The regions only partition the first room.
+		this.maxRooms = (bus != null) ? 1 : (properties.getMaxRooms() > 0) ? properties.getMaxRooms() : cores;
+		log.info("Board " + properties.getBoardWidth() + "x" + properties.getBoardHeight() +
+				", broad-phase collision detection: " + properties.getBroadPhase() +
+				", tick mode: " + properties.getTickMode() + ", input mode: " + properties.getInputMode() +
+				", tick: " + properties.getTickMillis() + "ms " + properties.getTickPolicy() +
+				", room split: " + roomSplitPlayers + " players, max rooms: " + maxRooms +
+				((bus != null) ? ", region " + properties.getRegion().getIndex() + " of " +
+						properties.getRegion().getPeers() : ""));
+	}
+
+	private SocketBoardBus createBus(PlayerProperties.Region region) {
+		if (region.getPeers().isEmpty()) {
+			return null;
+		}
+		List<InetSocketAddress> peers = new ArrayList<>();
+		for (String peer : region.getPeers()) {
+			int colon = peer.lastIndexOf(':');
+			if (colon < 0) {
+				throw new IllegalArgumentException("Bad region peer, not host:port: " + peer);
+			}
+			peers.add(new InetSocketAddress(peer.substring(0, colon), Integer.parseInt(peer.substring(colon + 1))));
+		}
+		try {
+			return new SocketBoardBus(region.getIndex(), peers, virtualThreadExecutor);
+		} catch (IOException e) {
+			throw new IllegalStateException("Region bus not started: " + e.getMessage(), e);
+		}
+	}
+
+	// Called by Spring on shutdown.
+	public void close() throws InterruptedException, IOException {
+		for (Room room : rooms.values()) {
+			room.stop();
+		}
+		if (bus != null) {
+			bus.close();
+		}
+	}
 
 	public void setCustomWebSocketHandler(PlayerWebSocketHandler webSocketHandler) {
 		log.info("SET CustomWebSocketHandler");
 		this.webSocketHandler = webSocketHandler;
+		metrics.setQueueDepth(webSocketHandler::getQueueDepth);
+		metrics.setRooms(rooms::size);
+		metrics.setSessions(webSocketHandler::getSessionCount);
+		metrics.setPlayers(() -> rooms.values().stream().mapToLong(Room::getHumanCount).sum());
+		metrics.setDrones(() -> rooms.values().stream().mapToLong(Room::getDroneCount).sum());
 		try {
-			for (int i = 0; i < DRONE_COUNT; i++) {
-				board.addPlayer("!d@" + i + "!", true); // add self-moving drone
-			}
+			firstRoom = openRoom();
+			log.info("Area of interest: " + firstRoom.getBoard().isAreaOfInterest());
 		} catch (InterruptedException e) {
 			log.error("InterruptedException during startup");
 		}
 	}
 
+	private Room openRoom() throws InterruptedException {
+		String id = Integer.toString(roomIds.incrementAndGet());
+		Room room = new Room(id, virtualThreadExecutor, webSocketHandler, properties, bands, tickPool, metrics,
+				(firstRoom == null) ? bus : null);
+		room.addDrones();
+		rooms.put(id, room);
+		return room;
+	}
+
+	public int getRoomCount() {
+		return rooms.size();
+	}
+
+	// Its own generator, so the name doesn't wait for a tick.
 	public String genRandomUserName() throws InterruptedException {
-		byte[] randSrc = board.randByteArray(3);
+		byte[] randSrc = new byte[3];
+		PlayerRandom.create().nextBytes(randSrc);
 		return PlayerUtil.genRandomUserName(randSrc);
 	}
-	
+
 	public String getInit(String id) {
-		return "w:" + board.width + "\th:" + board.height + "\tid:" + id;
+		Room room = roomOrFirst(id);
+		Board board = room.getBoard();
+		return "w:" + board.width + "\th:" + board.height + "\tid:" + id + "\troom:" + room.getId();
 	}
 
-	public String addPlayer(PlayerWebSocketSession session) throws InterruptedException {
-		Player player = board.addPlayer(session.getPlayerName(), false);
-		session.setPlayerId(player.getId());
-		player.setSessionId(session.getSessionId());
-		log.info("WebSocket " + session.getSessionId() + " Player id: " + player.getId());
-		startTimerThread();
-		return player.getId();
+	// roomId is the room asked for in the handshake, null to be placed in any room.
+	public String addPlayer(PlayerWebSocketSession session, String roomId) throws InterruptedException {
+		roomLock.lockInterruptibly();
+		try {
+			Room room = (roomId != null) ? rooms.get(roomId) : null;
+			if (room == null) {
+				room = firstRoom;
+				for (Room r : rooms.values()) {
+					if (r.getHumanCount() < room.getHumanCount()) {
+						room = r;
+					}
+				}
+			}
+			String playerId = room.addPlayer(session);
+			session.setPlayerId(playerId);
+			session.setRoomId(room.getId());
+			playerRooms.put(playerId, room);
+			log.info("WebSocket " + session.getSessionId() + " Player id: " + playerId + ", room " + room.getId());
+			if (roomSplitPlayers > 0 && room.getHumanCount() > roomSplitPlayers && rooms.size() < maxRooms) {
+				splitRoom(room);
+			}
+			return playerId;
+		} finally {
+			roomLock.unlock();
+		}
 	}
 
-	public String getPlayerDesc(String id) throws InterruptedException {
-		return board.getPlayerDesc(id);
+	// The moved players leave the room now, their browsers reconnect to the new room.
+	private void splitRoom(Room room) throws InterruptedException {
+		Room newRoom = openRoom();
+		List<String> movedIds = webSocketHandler.moveToRoom(room.getId(), newRoom.getId(), room.getHumanCount() / 2);
+		for (String id : movedIds) {
+			playerRooms.remove(id);
+			room.removePlayer(id);
+		}
+		metrics.getRoomSplits().increment();
+		log.info("Room " + room.getId() + " split, " + movedIds.size() + " players moved to room " + newRoom.getId());
 	}
 
-	public boolean getPlayerInfo(String id, PlayerInfo info) throws InterruptedException {
-		return board.getPlayerInfo(id, info);
+	// When true the player names are sent with the positions, only for players near the browser's viewport.
+	public boolean isAreaOfInterest() {
+		return firstRoom.getBoard().isAreaOfInterest();
 	}
-	
-	public String getFirstPlayerId() throws InterruptedException {
-		return board.getFirstPlayerId();
+
+	// View content is "x <tab> y <tab> width <tab> height" of the browser's visible board area.
+	public void setView(String id, String content) throws InterruptedException {
+		Room room = findRoom(id);
+		if (room == null) {
+			return;
+		}
+		Board board = room.getBoard();
+		String[] parts = content.split("\t");
+		if (parts.length != 4) {
+			throw new IllegalArgumentException("Bad view: " + content);
+		}
+		try {
+			int x = Integer.parseInt(parts[0]);
+			int y = Integer.parseInt(parts[1]);
+			int width = Math.clamp(Integer.parseInt(parts[2]), 1, board.width);
+			int height = Math.clamp(Integer.parseInt(parts[3]), 1, board.height);
+			board.setView(id, new Viewport(x, y, width, height));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Bad view: " + content);
+		}
 	}
 
-	public void iteratePlayer(StringBuilder sb, PlayerInfo info, PlayerFn fn) throws InterruptedException {
-		board.iteratePlayer(sb, info, fn);
+	// Looked up in the session's room, drones aren't in the player room map.  Null if not found.
+	public String getPlayerDesc(String roomId, String id) {
+		Room room = (roomId != null) ? rooms.get(roomId) : null;
+		return (room != null) ? room.getBoard().getPlayerDesc(id) : null;
 	}
 
-	public void removePlayer(String id) throws InterruptedException {
-		board.removePlayer(id);
-		int count = board.getPlayerCount();
-		log.info("Removed player " + id + ", count => " + count);
-		if (count <= DRONE_COUNT) {
-			stopTimerThread();
-		}
-	}
-	
-	public void playerKey(String id, String keys) throws InterruptedException {
-		boolean up = keys.contains("U");
-		boolean down = keys.contains("D");
-		boolean left = keys.contains("L");
-		boolean right = keys.contains("R");
-		board.playerKey(id, up, down, left, right);
-	}
-	
-	private void startTimerThread() throws InterruptedException {
-		taskLock.lockInterruptibly();
-		try {
-			if (task == null) {
-				log.info("START timer");
-				task = virtualThreadExecutor.submit(this::timerThread);
-			}
-		} finally {
-			taskLock.unlock();
-		}
+	public boolean getPlayerInfo(String roomId, String id, PlayerInfo info) {
+		Room room = (roomId != null) ? rooms.get(roomId) : null;
+		return (room != null) && room.getBoard().getPlayerInfo(id, info);
 	}
-	
-	private void stopTimerThread() throws InterruptedException {
-		taskLock.lockInterruptibly();
-		try {
-			Future<?> activeTask = task;
-			if (activeTask != null) {
-				log.info("CANCEL timer");
-				activeTask.cancel(true);
-				task = null;
-			}
-		} finally {
-			taskLock.unlock();
+
+	public String getFirstRoomId() {
+		return firstRoom.getId();
+	}
+
+	// First player in the first room.
+	public String getFirstPlayerId() {
+		return firstRoom.getBoard().getFirstPlayerId();
+	}
+
+	// The players in the room, none if the session was moved out by a room split.
+	public void iteratePlayer(String roomId, StringBuilder sb, PlayerInfo info, PlayerFn fn) {
+		Room room = (roomId != null) ? rooms.get(roomId) : null;
+		if (room != null) {
+			room.getBoard().iteratePlayer(sb, info, fn);
 		}
 	}
 
-	private void timerThread() {
-		try {
-			// Delay
-			Thread.sleep(Duration.ofMillis(20));
-			// Animate
-			timerAction();
-			// Reschedule
-			taskLock.lockInterruptibly();
+	// The names and positions of the last tick for a browser joining the room.
+	public List<PreparedFrame> getSnapshotFrames(String roomId, int maxDataSize) throws InterruptedException {
+		Room room = (roomId != null) ? rooms.get(roomId) : null;
+		return (room != null) ? room.getSnapshotFrames(maxDataSize) : List.of();
+	}
+
+	public void removePlayer(String id) throws InterruptedException {
+		// Not found if the player was moved out by a room split.
+		Room room = (id != null) ? playerRooms.remove(id) : null;
+		if (room == null) {
+			return;
+		}
+		room.removePlayer(id);
+		if (room != firstRoom && room.getHumanCount() <= 0) {
+			roomLock.lockInterruptibly();
 			try {
-				if (task != null) {
-					task = virtualThreadExecutor.submit(this::timerThread);
+				if (room.getHumanCount() <= 0 && rooms.remove(room.getId(), room)) {
+					log.info("Room " + room.getId() + " closed");
+					room.stop();
 				}
 			} finally {
-				taskLock.unlock();
+				roomLock.unlock();
 			}
-		} catch (InterruptedException e) {
-			log.info("Timer thread interrupted");
-		} catch (Exception e) {
-			log.error("Error in animation timer thread: " + e.getMessage(), e);
 		}
 	}
 
-	private void timerAction() throws InterruptedException {
-		StringBuilder sb = new StringBuilder(DESC_BUFFER_LEN);
-		List<String> descList = board.animate();
-		int maxDataSize = webSocketHandler.getMaxDataSize();
-		for (String desc : descList) {
-			// If adding this desc puts the length out of bounds
-			if (sb.length() + desc.length() + 5 > maxDataSize) {
-				sendUpdate(sb.toString());
-				sb.setLength(0);
-			}
-			if (sb.length() > 0) {
-				sb.append('\n');
-			}
-			sb.append(desc);
-		}
-		if (sb.length() > 0) {
-			sendUpdate(sb.toString());
+	// The keys are KEY_* bits.
+	public void playerKey(String id, int keys) throws InterruptedException {
+		Room room = findRoom(id);
+		if (room == null) {
+			return;
 		}
+		room.getBoard().playerKey(id, keys);
 	}
-	
-	private void sendUpdate(String content) {
-		String text = "$p:" + content;
-		webSocketHandler.sendAll(text);
-		// log.info("Send: " + text);
+
+	// The id is null for a session whose join was rejected, which the concurrent map doesn't take.
+	private Room findRoom(String id) {
+		return (id != null) ? playerRooms.get(id) : null;
+	}
+
+	private Room roomOrFirst(String id) {
+		Room room = findRoom(id);
+		return (room != null) ? room : firstRoom;
 	}
 }
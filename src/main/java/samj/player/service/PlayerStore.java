@@ -0,0 +1,330 @@
+package samj.player.service;
+
+import java.util.Arrays;
+
+import samj.player.util.PlayerRandom;
+
+/*
+ * Structure-of-arrays store for the player state which changes on every tick.  The arrays are
+ * indexed by slot and the live players are packed into slots 0 .. count - 1 so the animation
+ * loops run straight through the arrays.  Removing a player moves the last player into its slot.
+ * Each player also has a handle from PlayerHandles, which doesn't change while it is on the board.
+ *
+ * The Player objects keep the data which doesn't change (id, name, session), their slot and handle.
+ *
+ * The random numbers come from the caller's generator, so the parallel tick bands each use their own.
+ *
+ * Use of the PlayerStore object is restricted to the Board -> NO public modifiers.
+ */
+class PlayerStore {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final Board board;
+	private final PlayerHandles handles = new PlayerHandles();
+
+	int count = 0;
+	Player[] players = new Player[INITIAL_CAPACITY];
+	boolean[] auto = new boolean[INITIAL_CAPACITY]; // autonomous, without user control.
+	int[] x = new int[INITIAL_CAPACITY];
+	int[] y = new int[INITIAL_CAPACITY];
+	int[] dx = new int[INITIAL_CAPACITY];
+	int[] dy = new int[INITIAL_CAPACITY];
+	int[] bounce = new int[INITIAL_CAPACITY];
+	int[] handle = new int[INITIAL_CAPACITY];
+	// Changed since the last frame was sent to the browsers, see takeMoved().
+	boolean[] moved = new boolean[INITIAL_CAPACITY];
+	// Area of interest tile from the last tick, -1 for a new player.
+	int[] tile = new int[INITIAL_CAPACITY];
+	// Player given its handle since the last tick, see takeNewHandle().
+	boolean[] newHandle = new boolean[INITIAL_CAPACITY];
+	// Copy of a player owned by another region of a partitioned board, not moved here.
+	boolean[] ghost = new boolean[INITIAL_CAPACITY];
+	// Bumped when a player is added or removed, the BoardSnapshot keeps its roster until then.
+	int rosterVersion = 0;
+
+	PlayerStore(Board board) {
+		this.board = board;
+	}
+
+	int add(Player p, PlayerRandom rand) {
+		if (count == players.length) {
+			grow();
+		}
+		int slot = count++;
+		players[slot] = p;
+		auto[slot] = p.isAuto();
+		x[slot] = 0;
+		y[slot] = 0;
+		dx[slot] = 0;
+		dy[slot] = 0;
+		bounce[slot] = 0;
+		handle[slot] = handles.acquire();
+		moved[slot] = true; // update to UI at least once
+		tile[slot] = -1;
+		newHandle[slot] = true;
+		ghost[slot] = false;
+		rosterVersion++;
+		p.setSlot(slot);
+		p.setHandle(handle[slot]);
+		if (p.isAuto()) {
+			initDirection(slot, rand);
+		}
+		return slot;
+	}
+
+	void remove(int slot) {
+		int last = --count;
+		rosterVersion++;
+		players[slot].setSlot(-1);
+		players[slot].setHandle(-1);
+		handles.release(handle[slot]);
+		if (slot != last) {
+			Player p = players[last];
+			players[slot] = p;
+			auto[slot] = auto[last];
+			x[slot] = x[last];
+			y[slot] = y[last];
+			dx[slot] = dx[last];
+			dy[slot] = dy[last];
+			bounce[slot] = bounce[last];
+			handle[slot] = handle[last];
+			// The browsers know the player by its handle, so the new slot isn't sent.
+			moved[slot] = moved[last];
+			tile[slot] = tile[last];
+			newHandle[slot] = newHandle[last];
+			ghost[slot] = ghost[last];
+			p.setSlot(slot);
+		}
+		players[last] = null;
+	}
+
+	private void grow() {
+		int len = players.length * 2;
+		players = Arrays.copyOf(players, len);
+		auto = Arrays.copyOf(auto, len);
+		x = Arrays.copyOf(x, len);
+		y = Arrays.copyOf(y, len);
+		dx = Arrays.copyOf(dx, len);
+		dy = Arrays.copyOf(dy, len);
+		bounce = Arrays.copyOf(bounce, len);
+		handle = Arrays.copyOf(handle, len);
+		moved = Arrays.copyOf(moved, len);
+		tile = Arrays.copyOf(tile, len);
+		newHandle = Arrays.copyOf(newHandle, len);
+		ghost = Arrays.copyOf(ghost, len);
+	}
+
+	void setXY(int slot, int newX, int newY) {
+		x[slot] = newX;
+		y[slot] = newY;
+	}
+
+	void key(int s, boolean up, boolean down, boolean left, boolean right) {
+		if (up) {
+			if (left) {
+				dx[s] = (x[s] > 0) ? -board.motionDiagPixels : 0;
+				dy[s] = (y[s] > 0) ? -board.motionDiagPixels : 0;
+			} else if (right) {
+				dx[s] = (x[s] < board.maxX) ? board.motionDiagPixels : 0;
+				dy[s] = (y[s] > 0) ? -board.motionDiagPixels : 0;
+			} else {
+				dx[s] = 0;
+				dy[s] = (y[s] > 0) ? -board.motionPixels : 0;
+			}
+		} else if (down) {
+			if (left) {
+				dx[s] = (x[s] > 0) ? -board.motionDiagPixels : 0;
+				dy[s] = (y[s] < board.maxY) ? board.motionDiagPixels : 0;
+			} else if (right) {
+				dx[s] = (x[s] < board.maxX) ? board.motionDiagPixels : 0;
+				dy[s] = (y[s] < board.maxY) ? board.motionDiagPixels : 0;
+			} else {
+				dx[s] = 0;
+				dy[s] = (y[s] < board.maxY) ? board.motionPixels : 0;
+			}
+		} else if (left) {
+			dx[s] = (x[s] > 0) ? -board.motionPixels : 0;
+			dy[s] = 0;
+		} else if (right) {
+			dx[s] = (x[s] < board.maxX) ? board.motionPixels : 0;
+			dy[s] = 0;
+		} else {
+			dx[s] = 0;
+			dy[s] = 0;
+		}
+	}
+
+	boolean move(int s, PlayerRandom rand) {
+		// Its own region moves a ghost, it still bounces the players which hit it here.
+		if (ghost[s]) {
+			return false;
+		}
+		boolean m = false;
+		if (dx[s] != 0) {
+			x[s] += dx[s];
+			m = true;
+		}
+		// Check x even if dx is now zero
+		if (x[s] < 0) {
+			x[s] = 0;
+			if (finishedBouncing(s, rand)) {
+				dy[s] = changeSubDirection(dy[s], rand);
+				dy[s] = (dy[s] != 0) ? board.motionDiagPixels : 0;
+			}
+			dx[s] = (dy[s] != 0) ? board.motionDiagPixels : board.motionPixels;
+			m = true;
+		} else if (x[s] > board.maxX) {
+			x[s] = board.maxX;
+			if (finishedBouncing(s, rand)) {
+				dy[s] = changeSubDirection(dy[s], rand);
+				dy[s] = (dy[s] != 0) ? board.motionDiagPixels : 0;
+			}
+			dx[s] = (dy[s] != 0) ? -board.motionDiagPixels : -board.motionPixels;
+			m = true;
+		}
+		if (dy[s] != 0) {
+			y[s] += dy[s];
+			m = true;
+		}
+		// Check y even if dy is now zero
+		if (y[s] < 0) {
+			y[s] = 0;
+			if (finishedBouncing(s, rand)) {
+				dx[s] = changeSubDirection(dx[s], rand);
+				dx[s] = (dx[s] != 0) ? board.motionDiagPixels : 0;
+			}
+			dy[s] = (dx[s] != 0) ? board.motionDiagPixels : board.motionPixels;
+			m = true;
+		} else if (y[s] > board.height - board.playerSize - Math.abs(dy[s])) {
+			y[s] = board.height - board.playerSize;
+			if (finishedBouncing(s, rand)) {
+				dx[s] = changeSubDirection(dx[s], rand);
+				dx[s] = (dx[s] != 0) ? board.motionDiagPixels : 0;
+			}
+			dy[s] = (dx[s] != 0) ? -board.motionDiagPixels : -board.motionPixels;
+			m = true;
+		}
+		if (auto[s] && dx[s] == 0 && dy[s] == 0) {
+			changeDirection(s, rand);
+		}
+		moved[s] |= m;
+		return m;
+	}
+
+	// The moved flag covers all the moves since the last call, including collision bounces.
+	boolean takeMoved(int s) {
+		if (!moved[s]) {
+			return false;
+		}
+		moved[s] = false;
+		return true;
+	}
+
+	boolean takeNewHandle(int s) {
+		if (!newHandle[s]) {
+			return false;
+		}
+		newHandle[s] = false;
+		return true;
+	}
+
+	private boolean finishedBouncing(int s, PlayerRandom rand) {
+		if (bounce[s] >= board.maxBounce || rand.nextBool()) {
+			bounce[s] = 0;
+			return true;
+		}
+		bounce[s]++;
+		return false;
+	}
+
+	private void initDirection(int s, PlayerRandom rand) {
+		byte randValue = rand.nextByte();
+		int newDx = changeSubDirection(((randValue & 0xf) % 3) - 1, rand);
+		randValue = (byte) (randValue >> 4);
+		int newDy = changeSubDirection(((randValue & 0xf) % 3) - 1, rand);
+		newDx = newDx * (newDy != 0 ? board.motionDiagPixels : board.motionPixels);
+		newDy = newDy * (newDx != 0 ? board.motionDiagPixels : board.motionPixels);
+		dx[s] = newDx;
+		dy[s] = newDy;
+	}
+
+	private void changeDirection(int s, PlayerRandom rand) {
+		int newDx = changeSubDirection(dx[s], rand);
+		int newDy = changeSubDirection(dy[s], rand);
+		if (newDx == 0 && newDy == 0) {
+			dx[s] = -dx[s];
+			dy[s] = -dy[s];
+		} else {
+			int mult = (newDx != 0 && newDy != 0) ? board.motionDiagPixels : board.motionPixels;
+			dx[s] = newDx * mult;
+			dy[s] = newDy * mult;
+		}
+		bounce[s] = 0;
+	}
+
+	private int changeSubDirection(int delta, PlayerRandom rand) {
+		if (delta < 0) {
+			return rand.nextBool() ? 1 : 0;
+		}
+		if (delta > 0) {
+			return rand.nextBool() ? -1 : 0;
+		}
+		return rand.nextBool() ? -1 : 1;
+	}
+
+	void checkCollision(int s1, int s2, PlayerRandom rand) {
+		if (isCollision(s1, s2)) {
+			swapDirection(s1, s2, rand);
+			int count = 5;
+			do {
+				move(s1, rand);
+				move(s2, rand);
+			} while (isCollision(s1, s2) && count-- >= 0);
+		}
+	}
+
+	private boolean isCollision(int s1, int s2) {
+		int diffX = Math.abs(x[s1] - x[s2]);
+		if (diffX > board.checkPlayerSize) {
+			return false;
+		}
+		int diffY = Math.abs(y[s1] - y[s2]);
+		return (diffY <= board.checkPlayerSize);
+	}
+
+	private void swapDirection(int s1, int s2, PlayerRandom rand) {
+		int xDiff = Math.abs(x[s1] - x[s2]);
+		int yDiff = Math.abs(y[s1] - y[s2]);
+
+		if (!auto[s1] || (dx[s1] == 0 && dy[s1] == 0)) {
+			if (!auto[s2] || (dx[s2] == 0 && dy[s2] == 0)) {
+				changeDirection(s2, rand);
+			} else if (xDiff > yDiff) {
+				dx[s2] = -dx[s2];
+			} else {
+				dy[s2] = -dy[s2];
+			}
+			move(s2, rand);
+			return;
+		}
+		if (dx[s2] == 0 && dy[s2] == 0) {
+			if (xDiff > yDiff) {
+				dx[s1] = -dx[s1];
+			} else {
+				dy[s1] = -dy[s1];
+			}
+			return;
+		}
+
+		if (xDiff > yDiff) {
+			int temp = dx[s1];
+			dx[s1] = dx[s2];
+			dx[s2] = temp;
+		} else {
+			int temp = dy[s1];
+			dy[s1] = dy[s2];
+			dy[s2] = temp;
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package samj.player.service;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Binary position frames, the compact alternative to the "$p:" text messages for the browsers
+ * which ask for it at the handshake.  All numbers are big-endian:
+ *
+ *   uint8  frame type, FRAME_POSITIONS
+ *   uint32 tick number
+ *   then for each player up to the end of the frame:
+ *     uint16 handle, with ID_FLAG set when the player id follows
+ *     int16  x
+ *     int16  y
+ *     uint8  id length and the id in ASCII, only with ID_FLAG
+ *
+ * The browser keeps a handle -> player id map from the entries with an id.  A player keeps its
+ * handle while it is on the board, a handle given to a new player is sent with its id.
+ *
+ * A board with more players than there are handles has no binary frames, encode() returns null
+ * and the browsers get the text messages, which have the ids.  The binary frames of the next tick
+ * have all the ids, as the browsers haven't been sent the handles of the players new in between.
+ *
+ * The frames are built in a buffer kept between ticks, and each is copied out to its own array
+ * because it is shared by the sessions and queued.  An encoder is only used by its room's timer
+ * thread.
+ *
+ * Use of the PositionFrames class is restricted to its package -> NO public modifiers.
+ */
+final class PositionFrames {
+
+	static final byte FRAME_POSITIONS = 1;
+	static final int ID_FLAG = 0x8000;
+	// Handles must fit in 15 bits.
+	static final int MAX_HANDLE = ID_FLAG - 1;
+
+	private static final int ENTRY_SIZE = 6;
+
+	private ByteBuffer buffer = ByteBuffer.allocate(0);
+	// Last tick whose binary frames have all the ids, after a tick with the text messages.
+	private long allIdsTick = -1;
+
+	// Encode the positions into as few frames as possible, each no bigger than maxFrameSize,
+	// null if a handle is too big for a binary frame.
+	List<byte[]> encode(long tick, PositionList list, int maxFrameSize) {
+		List<byte[]> frames = new ArrayList<>(1);
+		if (list.isEmpty()) {
+			return frames;
+		}
+		for (int i = 0; i < list.count; i++) {
+			if (list.handles[i] > MAX_HANDLE) {
+				allIdsTick = tick + 1;
+				return null;
+			}
+		}
+		boolean allIds = (tick <= allIdsTick);
+		if (buffer.capacity() < maxFrameSize) {
+			buffer = ByteBuffer.allocate(maxFrameSize);
+		}
+		buffer.clear();
+		for (int i = 0; i < list.count; i++) {
+			// The ids are ASCII.
+			String id = (allIds || list.withId[i]) ? list.ids[i] : null;
+			int size = ENTRY_SIZE + ((id != null) ? 1 + id.length() : 0);
+			if (buffer.position() > 0 && buffer.position() + size > maxFrameSize) {
+				frames.add(toFrame(buffer));
+			}
+			if (buffer.position() == 0) {
+				buffer.put(FRAME_POSITIONS);
+				buffer.putInt((int) tick);
+			}
+			int handle = list.handles[i];
+			buffer.putShort((short) ((id != null) ? (handle | ID_FLAG) : handle));
+			buffer.putShort((short) list.xs[i]);
+			buffer.putShort((short) list.ys[i]);
+			if (id != null) {
+				buffer.put((byte) id.length());
+				for (int k = 0; k < id.length(); k++) {
+					buffer.put((byte) id.charAt(k));
+				}
+			}
+		}
+		frames.add(toFrame(buffer));
+		return frames;
+	}
+
+	private static byte[] toFrame(ByteBuffer buffer) {
+		byte[] frame = new byte[buffer.position()];
+		buffer.flip();
+		buffer.get(frame);
+		buffer.clear();
+		return frame;
+	}
+}
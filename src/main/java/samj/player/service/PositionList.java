@@ -0,0 +1,49 @@
+package samj.player.service;
+
+import java.util.Arrays;
+
+/*
+ * Player positions for one tile on one tick, copied out of the PlayerStore so they can be
+ * encoded after the board lock is released.  The arrays are kept between ticks.
+ *
+ * withId marks the entries whose handle may be unknown to a browser: a full list, a player with
+ * a new handle or a player which moved into the tile.  The binary frames only send the id for those.
+ *
+ * Use of the PositionList object is restricted to its package -> NO public modifiers.
+ */
+class PositionList {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	int count = 0;
+	String[] ids = new String[INITIAL_CAPACITY];
+	int[] handles = new int[INITIAL_CAPACITY];
+	int[] xs = new int[INITIAL_CAPACITY];
+	int[] ys = new int[INITIAL_CAPACITY];
+	boolean[] withId = new boolean[INITIAL_CAPACITY];
+
+	void clear() {
+		count = 0;
+	}
+
+	boolean isEmpty() {
+		return count == 0;
+	}
+
+	void add(String id, int handle, int x, int y, boolean sendId) {
+		if (count == ids.length) {
+			int len = ids.length * 2;
+			ids = Arrays.copyOf(ids, len);
+			handles = Arrays.copyOf(handles, len);
+			xs = Arrays.copyOf(xs, len);
+			ys = Arrays.copyOf(ys, len);
+			withId = Arrays.copyOf(withId, len);
+		}
+		ids[count] = id;
+		handles[count] = handle;
+		xs[count] = x;
+		ys[count] = y;
+		withId[count] = sendId;
+		count++;
+	}
+}
@@ -0,0 +1,111 @@
+package samj.player.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * The "$p:" text position messages, "id <tab> x <tab> y" for each player joined with newlines.
+ *
+ * The messages are written into a char buffer kept between ticks, with the numbers written two
+ * digits at a time from lookup tables as in Integer.toString(), so the only garbage is the one
+ * String for each message.  The messages are shared by all the sessions and queued, so they
+ * can't be reused.
+ *
+ * An encoder is only used by its room's timer thread.
+ *
+ * Use of the PositionText class is restricted to its package -> NO public modifiers.
+ */
+final class PositionText {
+
+	static final String PREFIX = "$p:";
+
+	private static final char[] TENS = new char[100];
+	private static final char[] ONES = new char[100];
+
+	static {
+		for (int i = 0; i < 100; i++) {
+			TENS[i] = (char) ('0' + i / 10);
+			ONES[i] = (char) ('0' + i % 10);
+		}
+	}
+
+	private char[] chars = new char[256];
+	private int length = 0;
+
+	// Encode the positions into as few messages as possible, same split as Room.joinDescs().
+	List<String> encode(PositionList list, int maxDataSize) {
+		List<String> messages = new ArrayList<>(1);
+		length = 0;
+		for (int i = 0; i < list.count; i++) {
+			String id = list.ids[i];
+			int x = list.xs[i];
+			int y = list.ys[i];
+			int size = id.length() + 2 + stringSize(x) + stringSize(y);
+			if (length > 0 && length - PREFIX.length() + size + 5 > maxDataSize) {
+				messages.add(new String(chars, 0, length));
+				length = 0;
+			}
+			ensureCapacity(length + PREFIX.length() + size + 1);
+			if (length == 0) {
+				PREFIX.getChars(0, PREFIX.length(), chars, 0);
+				length = PREFIX.length();
+			} else {
+				chars[length++] = '\n';
+			}
+			id.getChars(0, id.length(), chars, length);
+			length += id.length();
+			chars[length++] = '\t';
+			putInt(x);
+			chars[length++] = '\t';
+			putInt(y);
+		}
+		if (length > 0) {
+			messages.add(new String(chars, 0, length));
+		}
+		return messages;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (chars.length < capacity) {
+			char[] bigger = new char[Math.max(capacity, chars.length * 2)];
+			System.arraycopy(chars, 0, bigger, 0, length);
+			chars = bigger;
+		}
+	}
+
+	// Written from the last digit back.
+	private void putInt(int value) {
+		int end = length + stringSize(value);
+		int pos = end;
+		if (value < 0) {
+			chars[length] = '-';
+			value = -value;
+		}
+		while (value >= 100) {
+			int q = value / 100;
+			int r = value - q * 100;
+			chars[--pos] = ONES[r];
+			chars[--pos] = TENS[r];
+			value = q;
+		}
+		chars[--pos] = ONES[value];
+		if (value >= 10) {
+			chars[--pos] = TENS[value];
+		}
+		length = end;
+	}
+
+	// The positions are board co-ordinates, so well inside the int range.
+	static int stringSize(int value) {
+		int size = 1;
+		if (value < 0) {
+			size++;
+			value = -value;
+		}
+		while (value >= 10) {
+			value /= 10;
+			size++;
+		}
+		return size;
+	}
+}
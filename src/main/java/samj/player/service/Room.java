@@ -0,0 +1,467 @@
+package samj.player.service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.extern.apachecommons.CommonsLog;
+import samj.player.cluster.BoardBus;
+import samj.player.config.PlayerProperties;
+import samj.player.metrics.PlayerMetrics;
+import samj.player.util.PlayerRandom;
+import samj.player.ws.PlayerWebSocketHandler;
+import samj.player.ws.PlayerWebSocketMessage;
+import samj.player.ws.PlayerWebSocketSession;
+import samj.player.ws.PreparedFrame;
+
+/*
+ * One arena: a board with its own drones and tick loop.  The PlayerService places each browser
+ * in a room, and the rooms tick independently on their own virtual threads, so they are spread
+ * over the cores by the virtual thread scheduler.  The frames of a tick only go to the sessions
+ * in the room.
+ *
+ * A browser which joins gets the "$snap:" frames with the names and positions of all the players
+ * on the last tick.  They are built from the board snapshot on the first join after a tick and
+ * shared by all the browsers which join before the next one, without the board lock.
+ *
+ * The joins and leaves are gathered by the board as it places and removes the players, and sent
+ * to the room once a tick, as "$r:" messages with a version number which goes up by one for each
+ * message.  The board hands them over with the snapshot of the same tick, so the snapshot has the
+ * version it is up to, and a browser which misses a version asks for the snapshot again with
+ * "$resync:".  With the area of interest the names come with the positions in view, so the roster
+ * only has the leaves and the snapshot only has the version.
+ *
+ * Use of the Room object is restricted to its package -> NO public modifiers.
+ */
+@CommonsLog
+class Room {
+
+	static final int DRONE_COUNT = 5;
+
+	private static final int DESC_BUFFER_LEN = 256;
+
+	private static final String MSG_POSITION_PREFIX = PositionText.PREFIX;
+	private static final String MSG_NAME_PREFIX = "$n:";
+	private static final String MSG_SNAPSHOT_PREFIX = "$snap:";
+	private static final String MSG_ROSTER_PREFIX = "$r:";
+	// Room for the version number line.
+	private static final int VERSION_LEN = 21;
+
+	// The board snapshot published by a tick with the roster version, and the frames built from it
+	// for joining browsers.
+	private record TickSnapshot(long tick, BoardSnapshot snapshot, long rosterVersion) {
+	}
+
+	private record SnapshotFrames(TickSnapshot source, List<PreparedFrame> frames) {
+	}
+
+	@Getter(AccessLevel.PACKAGE)
+	private final String id;
+	private final ExecutorService virtualThreadExecutor;
+	private final PlayerWebSocketHandler webSocketHandler;
+
+	@Getter(AccessLevel.PACKAGE)
+	private final Board board;
+	// Null unless the board is partitioned over several nodes.
+	private final BoardRegion region;
+	private final PlayerMetrics metrics;
+	// Only set for the parallel tick mode, shared by all the rooms.
+	private final ForkJoinPool tickPool;
+	// Every keyframeTicks the browsers get all the players, not just the ones which moved.
+	private final int keyframeTicks;
+	private long lastKeyframeTick = Long.MIN_VALUE / 2;
+	// Tick deadlines and numbers, only used by the timer thread.
+	private final TickClock tickClock;
+	// Null until the drones are added.
+	private volatile TickSnapshot published = null;
+	// Built by the first join after each tick, the lock makes the other joins wait for it.
+	private volatile SnapshotFrames snapshotFrames = null;
+	private final ReentrantLock snapshotLock = new ReentrantLock();
+	// Version of the last roster message, only used by the timer thread.
+	private long rosterVersion = 0;
+	// Browsers which asked for binary position frames, the others get the text messages.
+	private final AtomicInteger binarySessions = new AtomicInteger(0);
+	// Encoders and the tile frame cache, kept between ticks and only used by the timer thread.
+	private final PositionText positionText = new PositionText();
+	private final PositionFrames positionFrames = new PositionFrames();
+	private final List<List<PreparedFrame>> tileFrames = new ArrayList<>();
+
+	private final ReentrantLock taskLock = new ReentrantLock();
+	private volatile Future<?> task = null;
+	// Changed on each start so a cancelled timer thread doesn't reschedule itself.
+	private int timerRun = 0;
+	// Held by the timer thread for a tick, so a stop waits for the tick in flight.
+	private final ReentrantLock tickLock = new ReentrantLock();
+
+	Room(String id, ExecutorService virtualThreadExecutor, PlayerWebSocketHandler webSocketHandler,
+			PlayerProperties properties, int bands, ForkJoinPool tickPool, PlayerMetrics metrics) {
+		this(id, virtualThreadExecutor, webSocketHandler, properties, bands, tickPool, metrics, null);
+	}
+
+	// With a bus the board is this node's region of a partitioned board, see BoardRegion.
+	Room(String id, ExecutorService virtualThreadExecutor, PlayerWebSocketHandler webSocketHandler,
+			PlayerProperties properties, int bands, ForkJoinPool tickPool, PlayerMetrics metrics, BoardBus bus) {
+		this.id = id;
+		this.virtualThreadExecutor = virtualThreadExecutor;
+		this.webSocketHandler = webSocketHandler;
+		this.metrics = metrics;
+		this.tickPool = tickPool;
+		this.keyframeTicks = Math.max(1, properties.getKeyframeTicks());
+		this.tickClock = new TickClock(TimeUnit.MILLISECONDS.toNanos(Math.max(1, properties.getTickMillis())),
+				properties.getTickPolicy(), properties.getMaxCatchUpTicks());
+		long seed = PlayerRandom.create().nextLong();
+		InputJournal journal = createJournal(properties, seed, bands);
+		this.board = new Board(properties.getBoardWidth(), properties.getBoardHeight(), properties.getBroadPhase(), bands,
+				properties.getViewWidth(), properties.getViewHeight(), properties.getInputMode(), metrics,
+				new PlayerRandom(seed), journal);
+		this.region = (bus != null) ? new BoardRegion(board, properties.getRegion().getIndex(),
+				properties.getRegion().getPeers().size(), bus) : null;
+	}
+
+	// Null when there is no journal directory, or the journal can't be created.
+	private InputJournal createJournal(PlayerProperties properties, long seed, int bands) {
+		String dir = properties.getJournalDir();
+		if (dir == null || dir.isBlank()) {
+			return null;
+		}
+		Path path = Path.of(dir, "room-" + id + "-" + System.currentTimeMillis() + ".journal");
+		try {
+			InputJournal journal = InputJournal.create(path, new InputJournal.Header(seed, properties.getBoardWidth(),
+					properties.getBoardHeight(), properties.getBroadPhase(), bands));
+			log.info("Room " + id + " journal: " + path);
+			return journal;
+		} catch (IOException e) {
+			log.error("Room " + id + " journal " + path + " not created: " + e.getMessage());
+			return null;
+		}
+	}
+
+	void addDrones() throws InterruptedException {
+		for (int i = 0; i < DRONE_COUNT; i++) {
+			board.addPlayer("!d@" + i + "!", true); // add self-moving drone
+		}
+		// Put the drones on the board now, in case the input is queued.
+		board.drainInput();
+		// The browsers which join before the first tick get the drones where they start.
+		published = new TickSnapshot(-1, board.getSnapshot(), rosterVersion);
+		if (region != null) {
+			startTimerThread();
+		}
+	}
+
+	// Browsers in the room, including the joins not yet on the board.
+	int getHumanCount() {
+		return board.getPlayerCount() - board.getDroneCount();
+	}
+
+	int getDroneCount() {
+		return board.getDroneCount();
+	}
+
+	String addPlayer(PlayerWebSocketSession session) throws InterruptedException {
+		Player player = board.addPlayer(session.getPlayerName(), false);
+		player.setSessionId(session.getSessionId());
+		if (session.isBinaryFrames()) {
+			player.setBinary(true);
+			binarySessions.incrementAndGet();
+		}
+		startTimerThread();
+		return player.getId();
+	}
+
+	void removePlayer(String id) throws InterruptedException {
+		Player player = board.getPlayer(id);
+		if (player != null && player.isBinary()) {
+			binarySessions.decrementAndGet();
+		}
+		board.removePlayer(id);
+		int count = getHumanCount();
+		log.info("Room " + this.id + " removed player " + id + ", count => " + count);
+		// A region keeps ticking without browsers, the other regions' players collide with its drones.
+		if (count <= 0 && region == null) {
+			stopTimerThread();
+		}
+	}
+
+	void stop() throws InterruptedException {
+		stopTimerThread();
+		board.closeJournal();
+	}
+
+	private void startTimerThread() throws InterruptedException {
+		taskLock.lockInterruptibly();
+		try {
+			if (task == null) {
+				log.info("START timer, room " + id);
+				tickClock.start(System.nanoTime());
+				int run = ++timerRun;
+				task = virtualThreadExecutor.submit(() -> timerThread(run));
+			}
+		} finally {
+			taskLock.unlock();
+		}
+	}
+
+	private void stopTimerThread() throws InterruptedException {
+		taskLock.lockInterruptibly();
+		try {
+			Future<?> activeTask = task;
+			if (activeTask != null) {
+				log.info("CANCEL timer, room " + id);
+				activeTask.cancel(true);
+				task = null;
+				// The cancel doesn't wait, and the next start mustn't share the encoders with this tick.
+				tickLock.lockInterruptibly();
+				tickLock.unlock();
+			}
+			// Any queued leaves would wait for the next tick, which may be a long time.
+			board.drainInput();
+		} finally {
+			taskLock.unlock();
+		}
+	}
+
+	private void timerThread(int run) {
+		try {
+			// Delay until the tick's deadline, not a fixed time after the last tick.
+			long delay = tickClock.delay(System.nanoTime());
+			if (delay > 0) {
+				Thread.sleep(Duration.ofNanos(delay));
+			}
+			// Animate
+			tickLock.lockInterruptibly();
+			try {
+				timerAction(tickClock.getTick());
+				long overrun = tickClock.finish(System.nanoTime());
+				if (overrun > 0) {
+					metrics.getTickOverruns().increment();
+					metrics.getTickOverrunNanos().add(overrun);
+					metrics.getTickOverrunMaxNanos().accumulate(overrun);
+				}
+				metrics.getTicksSkipped().add(tickClock.getSkipped());
+			} finally {
+				tickLock.unlock();
+			}
+			// Reschedule
+			taskLock.lockInterruptibly();
+			try {
+				if (task != null && run == timerRun) {
+					task = virtualThreadExecutor.submit(() -> timerThread(run));
+				}
+			} finally {
+				taskLock.unlock();
+			}
+		} catch (InterruptedException e) {
+			log.info("Timer thread interrupted, room " + id);
+		} catch (Exception e) {
+			log.error("Error in animation timer thread: " + e.getMessage(), e);
+		}
+	}
+
+	// Package access for the benchmarks.
+	void timerAction(long tick) throws InterruptedException {
+		long start = System.nanoTime();
+		boolean keyframe = tick - lastKeyframeTick >= keyframeTicks;
+		// Browsers which dropped position frames need all the players they can see.
+		List<String> resyncIds = webSocketHandler.takeKeyframeRequests(id);
+		if (!resyncIds.isEmpty()) {
+			if (board.isAreaOfInterest()) {
+				board.resetViews(resyncIds);
+			} else {
+				keyframe = true;
+			}
+		}
+		metrics.getTicks().increment();
+		if (keyframe) {
+			metrics.getKeyframes().increment();
+			lastKeyframeTick = tick;
+		}
+		AreaOfInterest areas = board.animate(tickPool, keyframe, region);
+		int maxDataSize = webSocketHandler.getMaxDataSize();
+		Board.TickRoster tickRoster = board.getTickRoster();
+		List<PreparedFrame> roster = rosterFrames(tickRoster.events(), maxDataSize);
+		published = new TickSnapshot(tick, tickRoster.snapshot(), rosterVersion);
+		long animated = System.nanoTime();
+		// Before the positions, which may have the new players.
+		webSocketHandler.sendRoom(id, roster);
+		if (!areas.isEnabled()) {
+			PositionList positions = areas.getTilePositions(0, keyframe);
+			List<PreparedFrame> texts = textFrames(tick, keyframe, positionText.encode(positions, maxDataSize));
+			List<PreparedFrame> frames = (binarySessions.get() > 0) ? binaryFrames(tick, keyframe, positions, maxDataSize) :
+					List.of();
+			if (frames == null) {
+				frames = texts;
+			}
+			long encoded = System.nanoTime();
+			webSocketHandler.sendFrames(id, texts, frames);
+			recordTick(start, animated, encoded);
+			return;
+		}
+		// Each tile is only encoded once per format, and shared by all the browsers which can see it.
+		// The cache is indexed by tile * 4, plus 2 for the full list and 1 for binary.
+		int tileCount = areas.getTileCount();
+		tileFrames.clear();
+		tileFrames.addAll(Collections.nCopies(tileCount * 4, null));
+		int cols = areas.getTileCols();
+		List<PlayerWebSocketMessage> messages = new ArrayList<>();
+		for (AreaOfInterest.ViewUpdate view : areas.getViews()) {
+			String sessionId = view.sessionId();
+			for (String content : joinDescs(view.names(), maxDataSize)) {
+				messages.add(new PlayerWebSocketMessage(sessionId, MSG_NAME_PREFIX + content));
+			}
+			for (String content : joinDescs(view.exits(), maxDataSize)) {
+				messages.add(new PlayerWebSocketMessage(sessionId, MSG_POSITION_PREFIX + content));
+			}
+			TileRect rect = view.rect();
+			for (int row = rect.row0(); row <= rect.row1(); row++) {
+				for (int col = rect.col0(); col <= rect.col1(); col++) {
+					int tile = row * cols + col;
+					// A tile which has just come into view needs all its players.
+					boolean full = keyframe || !view.oldRect().contains(col, row);
+					int index = tile * 4 + (full ? 2 : 0) + (view.binary() ? 1 : 0);
+					List<PreparedFrame> frames = tileFrames.get(index);
+					if (frames == null) {
+						PositionList positions = areas.getTilePositions(tile, full);
+						if (view.binary()) {
+							frames = binaryFrames(tick, full, positions, maxDataSize);
+						}
+						if (frames == null) {
+							frames = textFrames(tick, full, positionText.encode(positions, maxDataSize));
+						}
+						tileFrames.set(index, frames);
+					}
+					for (PreparedFrame frame : frames) {
+						messages.add(new PlayerWebSocketMessage(sessionId, frame));
+					}
+				}
+			}
+		}
+		long encoded = System.nanoTime();
+		webSocketHandler.sendEach(messages);
+		tileFrames.clear();
+		recordTick(start, animated, encoded);
+	}
+
+	// The names and positions of the last tick for a joining browser, none before the drones are added.
+	List<PreparedFrame> getSnapshotFrames(int maxDataSize) throws InterruptedException {
+		TickSnapshot source = published;
+		if (source == null) {
+			return List.of();
+		}
+		SnapshotFrames cached = snapshotFrames;
+		if (cached != null && cached.source() == source) {
+			return cached.frames();
+		}
+		snapshotLock.lockInterruptibly();
+		try {
+			source = published;
+			cached = snapshotFrames;
+			if (cached == null || cached.source() != source) {
+				cached = new SnapshotFrames(source, snapshotFrames(source, maxDataSize));
+				snapshotFrames = cached;
+				metrics.getSnapshotsBuilt().increment();
+			}
+			return cached.frames();
+		} finally {
+			snapshotLock.unlock();
+		}
+	}
+
+	// The roster version, then each player as "id\tx\ty\thandle", with "\tname" for the browsers' players.
+	private List<PreparedFrame> snapshotFrames(TickSnapshot source, int maxDataSize) {
+		BoardSnapshot snap = source.snapshot();
+		List<String> descs = new ArrayList<>(snap.count());
+		if (!board.isAreaOfInterest()) {
+			for (int i = 0; i < snap.count(); i++) {
+				Player player = snap.getPlayer(i);
+				String desc = snap.toDesc(i) + '\t' + snap.getHandle(i);
+				descs.add(player.isAuto() ? desc : desc + '\t' + player.getName());
+			}
+		}
+		List<String> contents = joinDescs(descs, maxDataSize - MSG_SNAPSHOT_PREFIX.length() - VERSION_LEN);
+		if (contents.isEmpty()) {
+			contents = List.of("");
+		}
+		List<PreparedFrame> frames = new ArrayList<>(contents.size());
+		for (String content : contents) {
+			String message = MSG_SNAPSHOT_PREFIX + source.rosterVersion() + (content.isEmpty() ? "" : "\n" + content);
+			frames.add(PreparedFrame.positions(source.tick(), true, message));
+		}
+		return frames;
+	}
+
+	// The joins and leaves since the last tick, each message with the next version.
+	private List<PreparedFrame> rosterFrames(List<String> events, int maxDataSize) {
+		if (events.isEmpty()) {
+			return List.of();
+		}
+		List<PreparedFrame> frames = new ArrayList<>(1);
+		for (String content : joinDescs(events, maxDataSize - MSG_ROSTER_PREFIX.length() - VERSION_LEN)) {
+			frames.add(PreparedFrame.text(MSG_ROSTER_PREFIX + (++rosterVersion) + "\n" + content));
+		}
+		metrics.getRosterMessages().add(frames.size());
+		return frames;
+	}
+
+	// The board records the move, collide and update times, the encode time is from the end of animate().
+	private void recordTick(long start, long animated, long encoded) {
+		long end = System.nanoTime();
+		metrics.getTickEncode().record(encoded - animated, TimeUnit.NANOSECONDS);
+		metrics.getFanout().record(end - encoded, TimeUnit.NANOSECONDS);
+		metrics.getTickTotal().record(end - start, TimeUnit.NANOSECONDS);
+	}
+
+	// Position messages, prepared once to be sent to many browsers.
+	private List<PreparedFrame> textFrames(long tick, boolean full, List<String> messages) {
+		List<PreparedFrame> frames = new ArrayList<>(messages.size());
+		for (String message : messages) {
+			frames.add(PreparedFrame.positions(tick, full, message));
+		}
+		return frames;
+	}
+
+	// Null when there are too many players for the binary frames, the browsers get the text messages.
+	private List<PreparedFrame> binaryFrames(long tick, boolean full, PositionList positions, int maxDataSize) {
+		List<byte[]> encoded = positionFrames.encode(tick, positions, maxDataSize);
+		if (encoded == null) {
+			return null;
+		}
+		List<PreparedFrame> frames = new ArrayList<>(encoded.size());
+		for (byte[] frame : encoded) {
+			frames.add(PreparedFrame.positions(tick, full, frame));
+		}
+		return frames;
+	}
+
+	// Join the descriptions with newlines into as few messages as possible.
+	private List<String> joinDescs(List<String> descList, int maxDataSize) {
+		List<String> result = new ArrayList<>(1);
+		StringBuilder sb = new StringBuilder(DESC_BUFFER_LEN);
+		for (String desc : descList) {
+			// If adding this desc puts the length out of bounds
+			if (sb.length() + desc.length() + 5 > maxDataSize) {
+				result.add(sb.toString());
+				sb.setLength(0);
+			}
+			if (sb.length() > 0) {
+				sb.append('\n');
+			}
+			sb.append(desc);
+		}
+		if (sb.length() > 0) {
+			result.add(sb.toString());
+		}
+		return result;
+	}
+}
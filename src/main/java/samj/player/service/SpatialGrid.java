@@ -0,0 +1,91 @@
+package samj.player.service;
+
+import java.util.Arrays;
+
+/*
+ * Uniform grid spatial index over the board.  build() buckets the items by cell with a counting
+ * sort, so the items of each cell are contiguous and in index order.  The arrays are kept between
+ * builds.
+ *
+ * Used by the grid broad-phase with player sized cells, and by the area of interest with view
+ * sized cells.
+ *
+ * Use of the SpatialGrid object is restricted to its package -> NO public modifiers.
+ */
+class SpatialGrid {
+
+	final int cellWidth;
+	final int cellHeight;
+	final int cols;
+	final int rows;
+	// cellStart[c] .. cellStart[c + 1] is the range of cellItems in cell c.
+	private final int[] cellStart;
+	private final int[] cellFill;
+	private int[] cellItems = new int[0];
+	private int[] itemCell = new int[0];
+
+	SpatialGrid(int width, int height, int cellWidth, int cellHeight) {
+		this.cellWidth = cellWidth;
+		this.cellHeight = cellHeight;
+		this.cols = Math.max(1, (width + cellWidth - 1) / cellWidth);
+		this.rows = Math.max(1, (height + cellHeight - 1) / cellHeight);
+		this.cellStart = new int[cols * rows + 1];
+		this.cellFill = new int[cols * rows];
+	}
+
+	int cellCount() {
+		return cols * rows;
+	}
+
+	void build(int count, int[] xs, int[] ys) {
+		if (cellItems.length < count) {
+			int len = Math.max(count, cellItems.length * 2);
+			cellItems = new int[len];
+			itemCell = new int[len];
+		}
+		Arrays.fill(cellStart, 0);
+		for (int i = 0; i < count; i++) {
+			int cell = cellOf(xs[i], ys[i]);
+			itemCell[i] = cell;
+			cellStart[cell + 1]++;
+		}
+		for (int c = 0; c < cellFill.length; c++) {
+			cellStart[c + 1] += cellStart[c];
+			cellFill[c] = cellStart[c];
+		}
+		for (int i = 0; i < count; i++) {
+			cellItems[cellFill[itemCell[i]]++] = i;
+		}
+	}
+
+	int cellOf(int x, int y) {
+		// Positions can be a little outside the board while bouncing.
+		return row(y) * cols + col(x);
+	}
+
+	int col(int x) {
+		return Math.clamp(Math.floorDiv(x, cellWidth), 0, cols - 1);
+	}
+
+	int row(int y) {
+		return Math.clamp(Math.floorDiv(y, cellHeight), 0, rows - 1);
+	}
+
+	// Cell of item i from the last build.
+	int itemCell(int i) {
+		return itemCell[i];
+	}
+
+	// Items of a cell are item(cellStart(c)) .. item(cellEnd(c) - 1).
+	int cellStart(int cell) {
+		return cellStart[cell];
+	}
+
+	int cellEnd(int cell) {
+		return cellStart[cell + 1];
+	}
+
+	int item(int k) {
+		return cellItems[k];
+	}
+}
@@ -0,0 +1,92 @@
+package samj.player.service;
+
+import java.util.Arrays;
+
+/*
+ * Sweep-and-prune along the X axis.  The players are kept sorted by X, and each player is
+ * only compared with the following players until the X distance is out of range.
+ *
+ * The sort order is kept between ticks and players only move a few pixels per tick, so the
+ * insertion sort is close to O(n).  A join is added at the end of the order and sorted into
+ * place, and a leave takes its slot out, with the player moved into the slot by the store's
+ * swap-remove keeping its place, so a burst of joins and leaves doesn't start the sort again.
+ */
+class SweepBroadPhase implements BroadPhase {
+
+	private int[] order = new int[0];
+	private int orderCount = 0;
+
+	@Override
+	public void findPairs(int count, int[] xs, int[] ys, int range, PairFn fn) throws InterruptedException {
+		sort(count, xs);
+		for (int a = 0; a < count; a++) {
+			int i = order[a];
+			int x = xs[i];
+			int y = ys[i];
+			for (int b = a + 1; b < count; b++) {
+				int j = order[b];
+				if (xs[j] - x > range) {
+					break;
+				}
+				if (Math.abs(ys[j] - y) <= range) {
+					if (i < j) {
+						fn.process(i, j);
+					} else {
+						fn.process(j, i);
+					}
+				}
+			}
+		}
+	}
+
+	/*
+	 * The order only has the slots below orderCount, a slot above it has joined since the last
+	 * tick.  A removed slot is taken out of the order, and the last slot moved into it takes its
+	 * place, unless the last slot joined since the last tick.
+	 */
+	@Override
+	public void removed(int slot, int last) {
+		if (last >= orderCount) {
+			return;
+		}
+		int n = 0;
+		for (int a = 0; a < orderCount; a++) {
+			int i = order[a];
+			if (i != slot) {
+				order[n++] = (i == last) ? slot : i;
+			}
+		}
+		orderCount = n;
+	}
+
+	private void sort(int count, int[] xs) {
+		if (count > orderCount) {
+			// New slots at the end, the insertion sort moves them into place.
+			if (order.length < count) {
+				order = Arrays.copyOf(order, Math.max(count, order.length * 2));
+			}
+			for (int i = orderCount; i < count; i++) {
+				order[i] = i;
+			}
+		} else if (count < orderCount) {
+			// Removed without being told, as when a band has fewer players this tick.
+			int n = 0;
+			for (int a = 0; a < orderCount; a++) {
+				if (order[a] < count) {
+					order[n++] = order[a];
+				}
+			}
+		}
+		orderCount = count;
+		for (int a = 1; a < count; a++) {
+			int item = order[a];
+			int x = xs[item];
+			int b = a - 1;
+			while (b >= 0 && xs[order[b]] > x) {
+				order[b + 1] = order[b];
+				b--;
+			}
+			order[b + 1] = item;
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package samj.player.service;
+
+/*
+ * Fixed-rate tick deadlines, so the tick period doesn't stretch by the time each tick takes.
+ *
+ * Tick n is due at start + n * period, and its slot ends at the next deadline.  When a tick
+ * finishes after some later deadlines have passed the policy decides what to do with those
+ * missed ticks.  The tick numbers count the deadlines, so skipped ticks leave a gap and the
+ * number always goes up.
+ *
+ * Only used by the timer thread, times are from System.nanoTime().
+ *
+ * Use of the TickClock object is restricted to its package -> NO public modifiers.
+ */
+class TickClock {
+
+	private final long periodNanos;
+	private final TickPolicy policy;
+	private final int maxCatchUp;
+
+	private long start = 0;
+	private long tick = 0;
+	private long skipped = 0;
+
+	TickClock(long periodNanos, TickPolicy policy, int maxCatchUp) {
+		this.periodNanos = periodNanos;
+		this.policy = policy;
+		this.maxCatchUp = maxCatchUp;
+	}
+
+	// The first tick is due one period from now.  Tick numbers carry on from the last run.
+	void start(long now) {
+		start = now + periodNanos - (tick * periodNanos);
+	}
+
+	long getTick() {
+		return tick;
+	}
+
+	long getPeriodNanos() {
+		return periodNanos;
+	}
+
+	// Time to wait for the current tick, <= 0 when it is due.
+	long delay(long now) {
+		return deadline() - now;
+	}
+
+	/*
+	 * The current tick finished at now, move on to the next one.  Returns how far the tick ran
+	 * past the end of its slot, <= 0 if it finished in time.  skipped is set to the number of
+	 * missed ticks which won't run.
+	 */
+	long finish(long now) {
+		long overrun = now - (deadline() + periodNanos);
+		tick++;
+		skipped = 0;
+		// Deadlines passed after the one now due.
+		long late = (now - deadline()) / periodNanos;
+		long allowed = (policy == TickPolicy.CATCH_UP) ? maxCatchUp : 0;
+		if (late > allowed) {
+			skipped = late - allowed;
+			tick += skipped;
+		}
+		return overrun;
+	}
+
+	// Ticks skipped by the last finish().
+	long getSkipped() {
+		return skipped;
+	}
+
+	private long deadline() {
+		return start + tick * periodNanos;
+	}
+}
@@ -0,0 +1,8 @@
+package samj.player.service;
+
+// How Board.animate() runs the move and collision phases on each tick.
+public enum TickMode {
+
+	SERIAL,		// all on the timer thread
+	PARALLEL;	// horizontal board bands on a ForkJoinPool, then a serial pass for the band edges
+}
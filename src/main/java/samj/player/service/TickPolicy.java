@@ -0,0 +1,8 @@
+package samj.player.service;
+
+// What the tick scheduler does with the ticks it missed because the earlier ticks ran late.
+public enum TickPolicy {
+
+	SKIP,		// run the latest missed tick now, the older ones are dropped
+	CATCH_UP;	// run the missed ticks back to back, up to the catch-up limit
+}
@@ -0,0 +1,11 @@
+package samj.player.service;
+
+// Inclusive range of area of interest tile columns and rows.
+record TileRect(int col0, int row0, int col1, int row1) {
+
+	static final TileRect NONE = new TileRect(0, 0, -1, -1);
+
+	boolean contains(int col, int row) {
+		return col >= col0 && col <= col1 && row >= row0 && row <= row1;
+	}
+}
@@ -0,0 +1,5 @@
+package samj.player.service;
+
+// Visible area of the board in a browser, in board co-ordinates.
+record Viewport(int x, int y, int width, int height) {
+}
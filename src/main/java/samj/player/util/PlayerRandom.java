@@ -1,91 +1,136 @@
 package samj.player.util;
 
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicLong;
 
 /*
 Algorithm "xorwow" from p. 5 of Marsaglia, "Xorshift RNGs".
 
-The Marsaglia XORWOW generator has a period of 2^123.  It is a combination of a 
-Xorshift generator with a long period and a Weyl generator, which together provide 
+The Marsaglia XORWOW generator has a period of 2^123.  It is a combination of a
+Xorshift generator with a long period and a Weyl generator, which together provide
 a sequence of pseudorandom numbers with excellent statistical properties.
 
+A generator has no lock and must only be used by one thread at a time, such as the thread
+holding the board lock.  Other threads split() their own generator from it, or create() one.
+
 NOT designed for cryptographic use.
 */
 public class PlayerRandom {
 
-	ReentrantLock lock = new ReentrantLock();
+	// Seeds for create(), spaced by the golden ratio as in java.util.SplittableRandom.
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+	private static final AtomicLong SEEDS = new AtomicLong(System.nanoTime());
 
 	// Any random numbers will do for this array. These from random.org hex bytes.
-	int x[] = {0xa56b0a5f, 0xc60720ed, 0xfe4d80fe, 0x4bc56002, 0x24f81f34};
-	int count = 0;
+	private final int x[] = {0xa56b0a5f, 0xc60720ed, 0xfe4d80fe, 0x4bc56002, 0x24f81f34};
+	private int count = 0;
 
 	// Byte source
-	int byteSrc = 0;
-	int byteSrcShift = -1;
+	private int byteSrc = 0;
+	private int byteSrcShift = -1;
 
 	// Boolean source
-	int boolSrc = 0;
-	int boolSrcMask = 0;
+	private int boolSrc = 0;
+	private int boolSrcMask = 0;
+
+	public PlayerRandom() {
+	}
+
+	// The same seed gives the same sequence.
+	public PlayerRandom(long seed) {
+		long z = seed;
+		for (int i = 0; i < x.length; i += 2) {
+			z += GOLDEN_GAMMA;
+			long mixed = mix64(z);
+			x[i] = (int) (mixed >>> 32);
+			if (i + 1 < x.length) {
+				x[i + 1] = (int) mixed;
+			}
+		}
+		// The xorshift state must not be all zero, which mix64 only gives for one seed.
+		if ((x[0] | x[1] | x[2] | x[3] | x[4]) == 0) {
+			x[0] = 0xa56b0a5f;
+		}
+	}
+
+	// A generator with a different seed on each call, for threads without one of their own.
+	public static PlayerRandom create() {
+		return new PlayerRandom(mix64(SEEDS.getAndAdd(GOLDEN_GAMMA)));
+	}
+
+	// A new generator seeded from this one, for another thread.
+	public PlayerRandom split() {
+		return new PlayerRandom(nextLong());
+	}
+
+	// Stafford's variant 13 of the MurmurHash3 finalizer, as used by SplittableRandom.
+	private static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
 
 	// The primary algorithm.
-	public int nextInt() throws InterruptedException {
-		lock.lockInterruptibly();
-		try {
-	        int t = x[4];
-	
-		    int s = x[0];  /* Perform a contrived 32-bit shift. */
-	        x[4] = x[3];
-	        x[3] = x[2];
-	        x[2] = x[1];
-	        x[1] = s;
-	
-		    t ^= t >> 2;
-		    t ^= t << 1;
-		    t ^= s ^ (s << 4);
-	        x[0] = t;
-	        count += 362437; // A "magic number" for the xorwow algorithm.
-	        return t + count;
-		} finally {
-			lock.unlock();
+	public int nextInt() {
+        int t = x[4];
+
+	    int s = x[0];  /* Perform a contrived 32-bit shift. */
+        x[4] = x[3];
+        x[3] = x[2];
+        x[2] = x[1];
+        x[1] = s;
+
+	    t ^= t >> 2;
+	    t ^= t << 1;
+	    t ^= s ^ (s << 4);
+        x[0] = t;
+        count += 362437; // A "magic number" for the xorwow algorithm.
+        return t + count;
+	}
+
+	public long nextLong() {
+		return ((long) nextInt() << 32) ^ (nextInt() & 0xffffffffL);
+	}
+
+	// 1 to 32 random bits, taken from the top of the next int.
+	public int nextBits(int bits) {
+		if (bits < 1 || bits > 32) {
+			throw new IllegalArgumentException("Bits out of range: " + bits);
 		}
+		return nextInt() >>> (32 - bits);
+	}
+
+	public int nextShort() {
+		return ((nextByte() & 0xff) << 8) + (nextByte() & 0xff);
 	}
 
-	public int nextShort() throws InterruptedException {
-		lock.lockInterruptibly();
-		try {
-			return ((nextByte() & 0xff) << 8) + (nextByte() & 0xff);
-		} finally {
-			lock.unlock();
+	public byte nextByte() {
+		if (byteSrcShift < 0) {
+			byteSrc = nextInt();
+			byteSrcShift = 24;
 		}
+		int shift = byteSrcShift;
+		byteSrcShift -= 8;
+		return (byte) (byteSrc >> shift);
 	}
-	
-	public byte nextByte() throws InterruptedException {
-		lock.lockInterruptibly();
-		try {
-			if (byteSrcShift < 0) {
-				byteSrc = nextInt();
-				byteSrcShift = 24;
+
+	// Fill the array, 4 bytes from each int.
+	public void nextBytes(byte[] bytes) {
+		int i = 0;
+		while (i < bytes.length) {
+			int value = nextInt();
+			for (int shift = 24; shift >= 0 && i < bytes.length; shift -= 8) {
+				bytes[i++] = (byte) (value >> shift);
 			}
-			int shift = byteSrcShift;
-			byteSrcShift -= 8;
-			return (byte) (byteSrc >> shift);
-		} finally {
-			lock.unlock();
 		}
 	}
-	
-	public boolean nextBool() throws InterruptedException {
-		lock.lockInterruptibly();
-		try {
-			if (boolSrcMask == 0) {
-				boolSrc = nextByte();
-				boolSrcMask = 0x80;
-			}
-			int mask = boolSrcMask;
-			boolSrcMask = boolSrcMask >> 1;
-			return ((boolSrc & mask) != 0);
-		} finally {
-			lock.unlock();
+
+	public boolean nextBool() {
+		if (boolSrcMask == 0) {
+			boolSrc = nextByte();
+			boolSrcMask = 0x80;
 		}
+		int mask = boolSrcMask;
+		boolSrcMask = boolSrcMask >> 1;
+		return ((boolSrc & mask) != 0);
 	}
 }
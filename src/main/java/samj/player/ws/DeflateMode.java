@@ -0,0 +1,9 @@
+package samj.player.ws;
+
+// Which browsers get their messages compressed with permessage-deflate, see DeflatePolicy.
+public enum DeflateMode {
+
+	OFF,		// never, the messages are sent as they are
+	ALL,		// every browser which asks for it
+	ADAPTIVE;	// the browsers whose frames shrink enough, while the deflate time fits in the tick budget
+}
@@ -0,0 +1,171 @@
+package samj.player.ws;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.Deflater;
+
+import lombok.Getter;
+import samj.player.metrics.PlayerMetrics;
+
+/*
+ * Decides which browsers get the permessage-deflate extension.
+ *
+ * Tomcat compresses every message of a session with the extension, and the extension is only
+ * agreed in the handshake, so the choice is made once for each browser when it connects.  OFF and
+ * ALL never or always agree to it when the browser asks.  ADAPTIVE agrees when the position frames
+ * of the browser's format, text or binary, are at least minFrameBytes and shrink to MAX_RATIO or
+ * less, and the deflate time of all the compressed sessions stays within budgetNanos a tick.  A
+ * browser which connects before there are any frames gets no compression.
+ *
+ * The sizes, ratios and times are running averages of samples: on one fanout in SAMPLE_FANOUTS
+ * the first position frame of each format is compressed here the way Tomcat would, and timed.
+ * Tomcat has a compressor for each session, so each compressed session costs its position bytes
+ * a tick times the time per byte.  The sample starts with an empty window each time, so the
+ * ratio is a little worse than the sessions get.
+ */
+public class DeflatePolicy {
+
+	public static final String EXTENSION = "permessage-deflate";
+
+	static final int SAMPLE_FANOUTS = 50;
+	// Frames which don't shrink to this fraction of their size aren't worth the time.
+	static final double MAX_RATIO = 0.8;
+	// Weight of a new sample in the running averages.
+	private static final double WEIGHT = 0.2;
+	// The empty block Tomcat takes off the end of each compressed message.
+	private static final int FLUSH_TRAILER = 4;
+
+	// Running averages for the position frames of one format.
+	record Estimate(double frameBytes, double sessionBytes, double ratio, double nanosPerByte) {
+
+		static final Estimate NONE = new Estimate(0, 0, 1, 0);
+
+		Estimate add(Estimate sample) {
+			if (this == NONE) {
+				return sample;
+			}
+			return new Estimate(average(frameBytes, sample.frameBytes), average(sessionBytes, sample.sessionBytes),
+					average(ratio, sample.ratio), average(nanosPerByte, sample.nanosPerByte));
+		}
+
+		private static double average(double value, double sample) {
+			return value + WEIGHT * (sample - value);
+		}
+
+		// Deflate time a tick for one session.
+		double sessionNanos() {
+			return sessionBytes * nanosPerByte;
+		}
+	}
+
+	@Getter
+	private final DeflateMode mode;
+	private final int minFrameBytes;
+	private final long budgetNanos;
+	// Only one sample at a time, a fanout which finds it held skips its sample.
+	private final ReentrantLock sampleLock = new ReentrantLock();
+	private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+	private final byte[] output = new byte[8192];
+	private final AtomicLong fanouts = new AtomicLong();
+	private volatile Estimate text = Estimate.NONE;
+	private volatile Estimate binary = Estimate.NONE;
+	// Open sessions with the extension.
+	private final AtomicInteger textSessions = new AtomicInteger();
+	private final AtomicInteger binarySessions = new AtomicInteger();
+
+	public DeflatePolicy(DeflateMode mode, int minFrameBytes, long budgetNanos) {
+		this.mode = mode;
+		this.minFrameBytes = minFrameBytes;
+		this.budgetNanos = budgetNanos;
+	}
+
+	// The gauges for the compressed sessions, their ratios and their deflate time a tick.
+	public void report(PlayerMetrics metrics) {
+		metrics.setDeflateSessions(this::getSessions);
+		metrics.setDeflateTickNanos(this::getTickNanos);
+		metrics.setDeflateTextRatio(() -> text.ratio());
+		metrics.setDeflateBinaryRatio(() -> binary.ratio());
+	}
+
+	// Whether to agree to the extension for a new browser which asks for it.
+	boolean accept(boolean binaryFrames) {
+		return switch (mode) {
+			case OFF -> false;
+			case ALL -> true;
+			case ADAPTIVE -> {
+				Estimate estimate = binaryFrames ? binary : text;
+				yield estimate.frameBytes() >= minFrameBytes && estimate.ratio() <= MAX_RATIO &&
+						getTickNanos() + estimate.sessionNanos() <= budgetNanos;
+			}
+		};
+	}
+
+	void opened(boolean binaryFrames, boolean deflated) {
+		if (deflated) {
+			(binaryFrames ? binarySessions : textSessions).incrementAndGet();
+		}
+	}
+
+	void closed(boolean binaryFrames, boolean deflated) {
+		if (deflated) {
+			(binaryFrames ? binarySessions : textSessions).decrementAndGet();
+		}
+	}
+
+	// True on the fanouts which should take a sample, only in ADAPTIVE mode.
+	boolean isSampleFanout() {
+		return mode == DeflateMode.ADAPTIVE && fanouts.incrementAndGet() % SAMPLE_FANOUTS == 0;
+	}
+
+	// Compress one position frame, which went with others to make sessionBytes for each session.
+	void sample(PreparedFrame frame, long sessionBytes) {
+		if (!sampleLock.tryLock()) {
+			return;
+		}
+		try {
+			byte[] payload = frame.toBytes();
+			if (payload.length == 0) {
+				return;
+			}
+			long start = System.nanoTime();
+			int size = deflate(payload);
+			long nanos = System.nanoTime() - start;
+			Estimate sample = new Estimate(payload.length, sessionBytes, (double) size / payload.length,
+					(double) nanos / payload.length);
+			if (frame.isBinary()) {
+				binary = binary.add(sample);
+			} else {
+				text = text.add(sample);
+			}
+		} finally {
+			sampleLock.unlock();
+		}
+	}
+
+	// Compressed size, as Tomcat sends it: a sync flush without its trailer.
+	private int deflate(byte[] payload) {
+		deflater.reset();
+		deflater.setInput(payload);
+		int size = 0;
+		int count;
+		do {
+			count = deflater.deflate(output, 0, output.length, Deflater.SYNC_FLUSH);
+			size += count;
+		} while (count == output.length);
+		return size - FLUSH_TRAILER;
+	}
+
+	public long getSessions() {
+		return textSessions.get() + binarySessions.get();
+	}
+
+	// Estimated deflate time a tick for all the compressed sessions.
+	public long getTickNanos() {
+		return Math.round(textSessions.get() * text.sessionNanos() + binarySessions.get() * binary.sessionNanos());
+	}
+
+	Estimate getEstimate(boolean binaryFrames) {
+		return binaryFrames ? binary : text;
+	}
+}
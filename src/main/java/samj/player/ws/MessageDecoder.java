@@ -0,0 +1,94 @@
+package samj.player.ws;
+
+import java.nio.ByteBuffer;
+
+import samj.player.service.PlayerService;
+
+/*
+ * Decodes the messages from the browsers.  The key presses are most of them, so the type and
+ * the keys are read from the text in place, without substrings or a switch on a string.
+ *
+ * "$key:" has any of the letters U, D, L and R, which become the PlayerService.KEY_* bits.
+ *
+ * A browser which takes binary position frames sends its keys as a one byte binary message
+ * instead: the key bits in the low 4 bits and a sequence number in the high 4 bits, which goes
+ * up by one for each key message.  A key message whose number isn't after the last one the
+ * session took, within half of the 16 numbers, is a duplicate or out of order and is dropped.
+ *
+ * Use of the MessageDecoder class is restricted to its package -> NO public modifiers.
+ */
+final class MessageDecoder {
+
+	enum Type {
+		KEY, VIEW, SEND_ALL, RESYNC, UNKNOWN
+	}
+
+	static final String MSG_KEY_PREFIX = "$key:"; // arrow key pressed on browser.
+	static final String MSG_VIEW_PREFIX = "$view:"; // visible board area on browser.
+	static final String MSG_SEND_ALL_PREFIX = "$send*:";
+	static final String MSG_RESYNC_PREFIX = "$resync:"; // missed a roster version, send the snapshot.
+
+	static final int KEY_MESSAGE_SIZE = 1;
+	static final int KEY_MASK = 0x0f;
+	static final int SEQ_SHIFT = 4;
+	static final int SEQ_MASK = 0x0f;
+	// The sequence number before the first key message.
+	static final int NO_SEQ = -1;
+
+	private MessageDecoder() {
+	}
+
+	// The second character picks the only prefix it can be.
+	static Type type(String text) {
+		if (text.length() < 2 || text.charAt(0) != '$') {
+			return Type.UNKNOWN;
+		}
+		return switch (text.charAt(1)) {
+			case 'k' -> text.startsWith(MSG_KEY_PREFIX) ? Type.KEY : Type.UNKNOWN;
+			case 'v' -> text.startsWith(MSG_VIEW_PREFIX) ? Type.VIEW : Type.UNKNOWN;
+			case 's' -> text.startsWith(MSG_SEND_ALL_PREFIX) ? Type.SEND_ALL : Type.UNKNOWN;
+			case 'r' -> text.startsWith(MSG_RESYNC_PREFIX) ? Type.RESYNC : Type.UNKNOWN;
+			default -> Type.UNKNOWN;
+		};
+	}
+
+	// The key letters after the prefix, others are ignored.
+	static int keys(String text) {
+		int keys = 0;
+		for (int i = MSG_KEY_PREFIX.length(); i < text.length(); i++) {
+			keys |= switch (text.charAt(i)) {
+				case 'U' -> PlayerService.KEY_UP;
+				case 'D' -> PlayerService.KEY_DOWN;
+				case 'L' -> PlayerService.KEY_LEFT;
+				case 'R' -> PlayerService.KEY_RIGHT;
+				default -> 0;
+			};
+		}
+		return keys;
+	}
+
+	static boolean isKeyMessage(ByteBuffer payload) {
+		return payload.remaining() == KEY_MESSAGE_SIZE;
+	}
+
+	static int keyByte(ByteBuffer payload) {
+		return payload.get(payload.position()) & 0xff;
+	}
+
+	static int keys(int keyByte) {
+		return keyByte & KEY_MASK;
+	}
+
+	static int seq(int keyByte) {
+		return (keyByte >>> SEQ_SHIFT) & SEQ_MASK;
+	}
+
+	// Serial number arithmetic on 4 bits: 1 to 7 ahead of the last one is newer.
+	static boolean isNewer(int seq, int lastSeq) {
+		if (lastSeq == NO_SEQ) {
+			return true;
+		}
+		int ahead = (seq - lastSeq) & SEQ_MASK;
+		return ahead > 0 && ahead <= SEQ_MASK / 2;
+	}
+}
@@ -33,6 +33,14 @@ public class PlayerHandshakeInterceptor implements HandshakeInterceptor {
 			if ("name".equals(parts[0]) && parts.length > 0) {
 				attributes.put("playerName", parts[1]);
 			}
+			// proto=bin asks for binary position frames, otherwise the text messages are sent.
+			if ("proto".equals(parts[0]) && parts.length > 1) {
+				attributes.put("binaryFrames", "bin".equals(parts[1]));
+			}
+			// room=<id> rejoins a room, such as the one given by a room split.
+			if ("room".equals(parts[0]) && parts.length > 1) {
+				attributes.put("roomId", parts[1]);
+			}
 		}
         return true;
     }
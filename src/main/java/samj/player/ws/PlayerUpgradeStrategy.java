@@ -0,0 +1,61 @@
+package samj.player.ws;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Map;
+
+import org.springframework.web.socket.server.standard.StandardWebSocketUpgradeStrategy;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.websocket.server.ServerEndpointConfig;
+
+/*
+ * The container agrees to permessage-deflate whenever the browser asks for it, so the
+ * DeflatePolicy's choice is made here: a browser the policy turns down has the extensions
+ * header hidden from the container, and its session is made without compression.
+ *
+ * The handshake attributes aren't passed on to here, so the format is read from the query as
+ * the PlayerHandshakeInterceptor does: proto=bin for binary position frames.
+ */
+public class PlayerUpgradeStrategy extends StandardWebSocketUpgradeStrategy {
+
+	private static final String EXTENSIONS_HEADER = "Sec-WebSocket-Extensions";
+
+	private final DeflatePolicy deflatePolicy;
+
+	public PlayerUpgradeStrategy(DeflatePolicy deflatePolicy) {
+		this.deflatePolicy = deflatePolicy;
+	}
+
+	@Override
+	protected void upgradeHttpToWebSocket(HttpServletRequest request, HttpServletResponse response,
+			ServerEndpointConfig endpointConfig, Map<String, String> pathParams) throws Exception {
+		String extensions = request.getHeader(EXTENSIONS_HEADER);
+		if (extensions != null && extensions.contains(DeflatePolicy.EXTENSION)) {
+			boolean binaryFrames = "bin".equals(request.getParameter("proto"));
+			if (!deflatePolicy.accept(binaryFrames)) {
+				request = new WithoutExtensions(request);
+			}
+		}
+		super.upgradeHttpToWebSocket(request, response, endpointConfig, pathParams);
+	}
+
+	private static class WithoutExtensions extends HttpServletRequestWrapper {
+
+		WithoutExtensions(HttpServletRequest request) {
+			super(request);
+		}
+
+		@Override
+		public String getHeader(String name) {
+			return EXTENSIONS_HEADER.equalsIgnoreCase(name) ? null : super.getHeader(name);
+		}
+
+		@Override
+		public Enumeration<String> getHeaders(String name) {
+			return EXTENSIONS_HEADER.equalsIgnoreCase(name) ? Collections.emptyEnumeration() : super.getHeaders(name);
+		}
+	}
+}
@@ -2,7 +2,7 @@ package samj.player.ws;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.apachecommons.CommonsLog;
-import samj.player.service.PlayerInfo;
+import samj.player.metrics.PlayerMetrics;
 import samj.player.service.PlayerService;
 import samj.player.util.JacksonMapper;
 import samj.player.util.PlayerUtil;
@@ -11,20 +11,22 @@ import org.springframework.context.ApplicationListener;
 import org.springframework.context.event.ContextClosedEvent;
 import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
 import org.springframework.web.socket.PongMessage;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketHandler;
 import org.springframework.web.socket.WebSocketMessage;
 import org.springframework.web.socket.WebSocketSession;
 
+import jakarta.websocket.Session;
+
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 
 @CommonsLog
@@ -33,6 +35,9 @@ public class PlayerWebSocketHandler implements WebSocketHandler, ApplicationList
     private final ExecutorService virtualThreadExecutor;
 	private final JacksonMapper mapper;
 	private final PlayerService playerService;
+	private final PlayerMetrics metrics;
+	private final SendPolicy sendPolicy;
+	private final DeflatePolicy deflatePolicy;
 	private final AtomicInteger maxDataSize = new AtomicInteger(8192);
 
 	private final Map<String, PlayerWebSocketSession> sessions = new ConcurrentHashMap<>(16, 0.75f, 1);
@@ -40,29 +45,35 @@ public class PlayerWebSocketHandler implements WebSocketHandler, ApplicationList
 	private static final String MSG_INIT_PREFIX = "$init:";
 	private static final String MSG_ERROR_PREFIX = "$err:";
 	private static final String MSG_UNKNOWN_PREFIX = "$?:";
-	private static final String MSG_SEND_ALL_PREFIX = "$send*:";
-	private static final String MSG_KEY_PREFIX = "$key:"; // arrow key pressed on browser.
+	private static final String MSG_SEND_ALL_PREFIX = MessageDecoder.MSG_SEND_ALL_PREFIX;
+	private static final String MSG_ROOM_PREFIX = "$room:"; // reconnect to another room.
+
+	private static final String TOMCAT_SEND_TIMEOUT = "org.apache.tomcat.websocket.BLOCKING_SEND_TIMEOUT";
 
 	@Override
     public void afterConnectionEstablished(WebSocketSession session) throws IOException {
         // var principal = session.getPrincipal();
         String id = session.getId();
         String name = getPlayerName(session);
-        PlayerWebSocketSession customSession = new PlayerWebSocketSession(name, session, virtualThreadExecutor);
-        log.info("WebSocket " + id + " Opened " + name);
+        boolean binaryFrames = Boolean.TRUE.equals(session.getAttributes().get("binaryFrames"));
+        PlayerWebSocketSession customSession = new PlayerWebSocketSession(name, binaryFrames, session, virtualThreadExecutor, metrics,
+        		sendPolicy);
+        log.info("WebSocket " + id + " Opened " + name + (binaryFrames ? " binary frames" : "") +
+        		(customSession.isDeflated() ? " deflated" : ""));
         sessions.put(id, customSession);
+        deflatePolicy.opened(binaryFrames, customSession.isDeflated());
         checkDataSize(session);
+        setSendTimeout(session);
 		try {
 			// setupPlayer can throw exception if name clashes, execute now.
-	        setupPlayer(customSession);
+	        setupPlayer(customSession, getRoomId(session));
 	        // sendSetup must run a bit later after connection fully up.
             virtualThreadExecutor.execute(() -> sendSetup(customSession));
 		} catch (InterruptedException e) {
 			log.error("Player add aborted, session id: " + session.getId());
 		} catch (IllegalArgumentException e) {
 			log.error("Player exception: " + e.getMessage());
-			customSession.setDelayedClose(true);
-			customSession.send(MSG_ERROR_PREFIX + e.getMessage());
+			customSession.sendAndClose(MSG_ERROR_PREFIX + e.getMessage());
 		}
     }
 
@@ -73,8 +84,7 @@ public class PlayerWebSocketHandler implements WebSocketHandler, ApplicationList
         log.info("WebSocket " + id + " Closed " + WsCloseStatus.toString(status));
         PlayerWebSocketSession customSession = sessions.remove(id);
         if (customSession != null) {
-        	String name = customSession.getPlayerName();
-        	sendAll(MSG_SEND_ALL_PREFIX + "[" + name + "]:<exit>");
+        	deflatePolicy.closed(customSession.isBinaryFrames(), customSession.isDeflated());
         }
         virtualThreadExecutor.execute(() -> endPlayer(customSession));
     }
@@ -101,12 +111,25 @@ public class PlayerWebSocketHandler implements WebSocketHandler, ApplicationList
     	return (obj != null) ? obj.toString() : null;
     }
 
+    private String getRoomId(WebSocketSession session) {
+    	Object obj = session.getAttributes().get("roomId");
+    	return (obj != null) ? obj.toString() : null;
+    }
+
     private void checkDataSize(WebSocketSession session) {
-    	int newMaxSize = session.getTextMessageSizeLimit();
+    	int newMaxSize = Math.min(session.getTextMessageSizeLimit(), session.getBinaryMessageSizeLimit());
     	maxDataSize.getAndUpdate(value -> Math.min(value, newMaxSize));
     	log.info("maxDataSize: " + maxDataSize.get());
     }
     
+    // A write to a dead browser fails after the timeout instead of holding up the session's queue.
+    private void setSendTimeout(WebSocketSession session) {
+    	if (session instanceof NativeWebSocketSession nativeSession &&
+    			nativeSession.getNativeSession() instanceof Session wsSession) {
+    		wsSession.getUserProperties().put(TOMCAT_SEND_TIMEOUT, sendPolicy.sendTimeoutMillis());
+    	}
+    }
+
     public int getMaxDataSize() {
     	return maxDataSize.get();
     }
@@ -135,30 +158,53 @@ public class PlayerWebSocketHandler implements WebSocketHandler, ApplicationList
         String id = session.getId();
         // log.info("WebSocket " + id + " Text " + message);
     	PlayerWebSocketSession customSession = sessions.get(id);
-        String response = null;
         String text = message.getPayload();
-        int index = text.indexOf(':');
-        String prefix = (index > 0) ? text.substring(0, index + 1) : text;
-        String content = (index > 0 && index < text.length()) ? text.substring(index + 1) : "";
-        switch (prefix) {
-	        case MSG_SEND_ALL_PREFIX -> {
+        switch (MessageDecoder.type(text)) {
+	        case KEY -> {
+	        	playerService.playerKey(customSession.getPlayerId(), MessageDecoder.keys(text));
+	        }
+	        case SEND_ALL -> {
 	        	String sender = customSession.getPlayerName();
+	        	String content = text.substring(MSG_SEND_ALL_PREFIX.length());
 	        	sendAll(MSG_SEND_ALL_PREFIX + "[" + sender + "]:" + content);
 	        }
-	        case MSG_KEY_PREFIX -> {
+	        case VIEW -> {
 	        	String playerId = customSession.getPlayerId();
-	        	playerService.playerKey(playerId, content);
+	        	try {
+	        		playerService.setView(playerId, text.substring(MessageDecoder.MSG_VIEW_PREFIX.length()));
+	        	} catch (IllegalArgumentException e) {
+	        		customSession.send(MSG_ERROR_PREFIX + e.getMessage());
+	        	}
+	        }
+	        case RESYNC -> {
+	        	metrics.getRosterResyncs().increment();
+	        	sendSnapshot(customSession);
+	        	if (playerService.isAreaOfInterest()) {
+	        		// The names come with the players in view.
+	        		customSession.requestKeyframe();
+	        	}
 	        }
-	        default -> {
-	        	response = MSG_UNKNOWN_PREFIX + text;
-	            customSession.send(response);
+	        case UNKNOWN -> {
+	            customSession.send(MSG_UNKNOWN_PREFIX + text);
 	        }
         }
 	}
 
+	// A one byte key message, the others are only logged.
 	protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) throws Exception {
         String id = session.getId();
-        String text = PlayerUtil.toHex(message.getPayload(), message.getPayloadLength());
+        ByteBuffer payload = message.getPayload();
+        if (MessageDecoder.isKeyMessage(payload)) {
+        	PlayerWebSocketSession customSession = sessions.get(id);
+        	int keyByte = MessageDecoder.keyByte(payload);
+        	if (customSession != null && customSession.takeKeySeq(MessageDecoder.seq(keyByte))) {
+        		playerService.playerKey(customSession.getPlayerId(), MessageDecoder.keys(keyByte));
+        	} else {
+        		metrics.getKeysDropped().increment();
+        	}
+        	return;
+        }
+        String text = PlayerUtil.toHex(payload, message.getPayloadLength());
         log.info("WebSocket " + id + " Binary " + text);
 	}
 
@@ -179,10 +225,8 @@ public class PlayerWebSocketHandler implements WebSocketHandler, ApplicationList
 		return false;
 	}
 
-	private void setupPlayer(PlayerWebSocketSession session) throws InterruptedException {
-		String playerId = playerService.addPlayer(session);
-		session.setPlayerId(playerId);
-		log.info("WebSocket " + session.getSessionId() + " Player id: " + playerId);
+	private void setupPlayer(PlayerWebSocketSession session, String roomId) throws InterruptedException {
+		playerService.addPlayer(session, roomId);
 	}
 	
 	private void endPlayer(PlayerWebSocketSession session) {
@@ -192,11 +236,11 @@ public class PlayerWebSocketHandler implements WebSocketHandler, ApplicationList
 			return;
 		}
 		try {
+			// The room tells the others on its next tick.
 			playerService.removePlayer(id);
 			session.setDelayedClose(true);
-			sendAll("$end:" + id);
 		} catch (InterruptedException e) {
-			log.error("Interrupted send player end");
+			log.error("Interrupted player end");
 		}
 	}
 
@@ -208,51 +252,158 @@ public class PlayerWebSocketHandler implements WebSocketHandler, ApplicationList
 	        String playerId = customSession.getPlayerId();
 	        String init = playerService.getInit(playerId);
 	        customSession.send(MSG_INIT_PREFIX + init);
-	        // Send player name updates
-	        String allPlayerNames = getAllPlayerNames();
-	        customSession.send("$n:" + allPlayerNames);
-	        PlayerInfo info = new PlayerInfo();
-	        if (playerService.getPlayerInfo(playerId, info)) {
-	        	sendAll("$n:" + info.getId() + ":" + info.getName());
-	        }
+	        // The others get the new player's name with the room's next roster message.
+	        sendSnapshot(customSession);
 		} catch (InterruptedException e) {
 			log.error("Send setup interrupted");
 		}
 	}
 
-	private String getAllPlayerNames() throws InterruptedException {
-		StringBuilder sb = new StringBuilder(128);
-		PlayerInfo info = new PlayerInfo();
-		playerService.iteratePlayer(sb, info, this::getPlayerNameItem);
-		return sb.toString();
+	/*
+	 * The names and positions of the last tick, built once for all the browsers joining on it, and
+	 * the roster version they are up to.  With the area of interest it only has the version, the
+	 * names come with the positions of the players in view.
+	 */
+	private void sendSnapshot(PlayerWebSocketSession customSession) throws InterruptedException {
+		customSession.sendSnapshot(playerService.getSnapshotFrames(customSession.getRoomId(), getMaxDataSize()));
+		metrics.getSnapshotsSent().increment();
 	}
-	
-	private void getPlayerNameItem(StringBuilder sb, PlayerInfo info) {
-		if (info.isAuto()) {
+
+	// Queue the message on all sessions, each session sends it in its own time.
+	public void sendAll(String message) {
+		// Built once for all the sessions.
+		PreparedFrame frame = PreparedFrame.text(message);
+		for (PlayerWebSocketSession customSession : sessions.values()) {
+			String name = customSession.getPlayerName();
+			if (name != null && !name.isBlank()) {
+				customSession.send(frame);
+			}
+		}
+	}
+
+	// Queue the frames on the sessions in the room.
+	public void sendRoom(String roomId, List<PreparedFrame> frames) {
+		if (roomId == null || frames.isEmpty()) {
 			return;
 		}
-		if (sb.length() > 0) {
-			sb.append('\n');
+		for (PlayerWebSocketSession customSession : sessions.values()) {
+			if (roomId.equals(customSession.getRoomId())) {
+				for (PreparedFrame frame : frames) {
+					customSession.send(frame);
+				}
+			}
 		}
-		sb.append(info.getId()).append(':').append(info.getName());
 	}
 
-	// Initiate sending to all sessions, and then wait for each one to complete.
-	public void sendAll(String message) {
-		List<Future<?>> futures = new ArrayList<>(sessions.size());
+	// Queue the text or binary frames on the sessions in the room.
+	public void sendFrames(String roomId, List<PreparedFrame> texts, List<PreparedFrame> frames) {
 		for (PlayerWebSocketSession customSession : sessions.values()) {
 			String name = customSession.getPlayerName();
-			if (name != null && !name.isBlank()) {
-				futures.add(customSession.send(message));
+			if (name != null && !name.isBlank() && roomId.equals(customSession.getRoomId())) {
+				for (PreparedFrame frame : customSession.isBinaryFrames() ? frames : texts) {
+					customSession.send(frame);
+				}
 			}
 		}
-		for (Future<?> future : futures) {
-			try {
-				future.get();
-			} catch (InterruptedException | ExecutionException e) {
-				log.info("Error waiting for message send: " + e.getMessage());
+		if (deflatePolicy.isSampleFanout()) {
+			sampleDeflate(texts);
+			sampleDeflate(frames);
+		}
+	}
+
+	// Every session of the format gets all the frames.
+	private void sampleDeflate(List<PreparedFrame> frames) {
+		long bytes = 0;
+		for (PreparedFrame frame : frames) {
+			bytes += frame.getSize();
+		}
+		if (!frames.isEmpty()) {
+			deflatePolicy.sample(frames.get(0), bytes);
+		}
+	}
+
+	// Queue each message on its session, the messages of a session are together in the list.
+	public void sendEach(List<PlayerWebSocketMessage> messages) {
+		for (PlayerWebSocketMessage message : messages) {
+			PlayerWebSocketSession customSession = sessions.get(message.id());
+			if (customSession != null) {
+				customSession.send(message.frame());
+			}
+		}
+		if (deflatePolicy.isSampleFanout()) {
+			sampleDeflate(messages, false);
+			sampleDeflate(messages, true);
+		}
+	}
+
+	/*
+	 * The first position frame of the format, with the average bytes a session of the format got.
+	 * A change of id is the next session.
+	 */
+	private void sampleDeflate(List<PlayerWebSocketMessage> messages, boolean binary) {
+		PreparedFrame first = null;
+		long bytes = 0;
+		int sessionCount = 0;
+		String lastId = null;
+		for (PlayerWebSocketMessage message : messages) {
+			PreparedFrame frame = message.frame();
+			if (frame.isPositions() && frame.isBinary() == binary) {
+				first = (first != null) ? first : frame;
+				bytes += frame.getSize();
+				if (!message.id().equals(lastId)) {
+					lastId = message.id();
+					sessionCount++;
+				}
+			}
+		}
+		if (first != null) {
+			deflatePolicy.sample(first, bytes / sessionCount);
+		}
+	}
+
+	// Player ids of the sessions in the room which dropped position frames since the last call.
+	public List<String> takeKeyframeRequests(String roomId) {
+		List<String> playerIds = new ArrayList<>();
+		for (PlayerWebSocketSession customSession : sessions.values()) {
+			if (roomId.equals(customSession.getRoomId()) && customSession.takeKeyframeWanted() &&
+					customSession.getPlayerId() != null) {
+				playerIds.add(customSession.getPlayerId());
+			}
+		}
+		return playerIds;
+	}
+
+	/*
+	 * Tell up to count browsers in the room to reconnect to the new room.  The sessions close once the
+	 * message is sent, and the room tells the others they have gone.  Returns their player ids.
+	 */
+	public List<String> moveToRoom(String fromRoomId, String toRoomId, int count) {
+		List<String> playerIds = new ArrayList<>();
+		for (PlayerWebSocketSession customSession : sessions.values()) {
+			if (playerIds.size() == count) {
+				break;
 			}
+			String playerId = customSession.getPlayerId();
+			if (fromRoomId.equals(customSession.getRoomId()) && playerId != null && !customSession.isDelayedClose()) {
+				customSession.setRoomId(null);
+				customSession.sendAndClose(MSG_ROOM_PREFIX + toRoomId);
+				playerIds.add(playerId);
+			}
+		}
+		return playerIds;
+	}
+
+	public int getSessionCount() {
+		return sessions.size();
+	}
+
+	// Frames waiting to be sent on all sessions.
+	public long getQueueDepth() {
+		long depth = 0;
+		for (PlayerWebSocketSession customSession : sessions.values()) {
+			depth += customSession.getQueueDepth();
 		}
+		return depth;
 	}
 
 	public void send(String sender, String content) {
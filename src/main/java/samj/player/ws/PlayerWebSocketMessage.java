@@ -1,5 +1,9 @@
 package samj.player.ws;
 
-public record PlayerWebSocketMessage(String id, String message) {
+// Message for the websocket session with the id, the frame can be shared with other sessions.
+public record PlayerWebSocketMessage(String id, PreparedFrame frame) {
 
+	public PlayerWebSocketMessage(String id, String message) {
+		this(id, PreparedFrame.text(message));
+	}
 }
@@ -1,11 +1,16 @@
 package samj.player.ws;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
-import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketMessage;
 import org.springframework.web.socket.WebSocketSession;
 
 import lombok.EqualsAndHashCode;
@@ -13,57 +18,339 @@ import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.Setter;
 import lombok.extern.apachecommons.CommonsLog;
+import samj.player.metrics.PlayerMetrics;
 
+/*
+ * Messages to the browser go through two queues, drained in order by one virtual thread at a time.
+ *
+ * The control lane has the init, name, end, error and chat messages, which are never dropped.
+ * The position lane is bounded and only holds the frames of the latest tick: a slow browser has
+ * the undelivered frames of an older tick replaced by the new ones.  A drop means the browser
+ * missed some moves, so the session asks for a keyframe.  Control messages go first.
+ *
+ * A browser which stays behind for the policy's lagTicks is downgraded: it only gets the full
+ * position frames, asking for them every downgradeIntervalTicks.  If it still can't keep up it is
+ * closed with SERVICE_OVERLOAD, and it gets its normal frames back once it keeps up for lagTicks.
+ */
 @RequiredArgsConstructor
 @EqualsAndHashCode
 @CommonsLog
 public class PlayerWebSocketSession {
 
+	// Enough for a tick of position frames to a browser which can see several tiles.
+	static final int MAX_POSITION_FRAMES = 64;
+
 	@Getter
 	private final String playerName;
+	// Positions are sent as binary frames instead of "$p:" text messages.
+	@Getter
+	private final boolean binaryFrames;
 	private final WebSocketSession session;
 	private final ExecutorService virtualThreadExecutor;
-	private final ReentrantLock sendLock = new ReentrantLock();
+	private final PlayerMetrics metrics;
+	private final SendPolicy policy;
+	// Guards the queues and the draining flag, only held for a few statements.
+	private final ReentrantLock queueLock = new ReentrantLock();
+	private final Deque<PreparedFrame> controlLane = new ArrayDeque<>();
+	private final Deque<PreparedFrame> positionLane = new ArrayDeque<>(MAX_POSITION_FRAMES);
+	private boolean draining = false;
+	private Thread drainThread = null;
+	// Lag tracking, guarded by the queue lock.  The ticks are -1 when not set.
+	private long lastTick = -1;
+	private long behindSince = -1;
+	private long keptUpSince = -1;
+	private long lastFullTick = -1;
+	@Getter
+	private volatile boolean downgraded = false;
+	private boolean overloaded = false;
 	@Getter @Setter
 	private String playerId = null;
+	// Room of the player, null when the player is moving to another room.
+	@Getter @Setter
+	private volatile String roomId = null;
 	@Getter @Setter
 	private volatile boolean delayedClose = false;
 	@Getter @Setter
 	private volatile boolean closed = false;
+	// Position frames were dropped, the browser needs all the players again.
+	private volatile boolean keyframeWanted = false;
+	// Sequence number of the last binary key message, the container delivers them one at a time.
+	private int keySeq = MessageDecoder.NO_SEQ;
 	
 	public String getSessionId() {
 		return session.getId();
 	}
-	
-	public Future<?> send(String message) {
-		return virtualThreadExecutor.submit(() -> senderThread(message));
+
+	// The container compresses the messages, see DeflatePolicy.
+	public boolean isDeflated() {
+		List<WebSocketExtension> extensions = session.getExtensions();
+		return extensions != null &&
+				extensions.stream().anyMatch(extension -> DeflatePolicy.EXTENSION.equals(extension.getName()));
 	}
-	
-	private void senderThread(String message) {
+
+	public void send(String message) {
+		send(PreparedFrame.text(message));
+	}
+
+	public void send(PreparedFrame frame) {
+		boolean startDrain = false;
+		queueLock.lock();
+		try {
+			if (overloaded) {
+				return;
+			}
+			if (frame.isPositions()) {
+				offerPosition(frame);
+			} else {
+				controlLane.add(frame);
+			}
+			startDrain = takeDrainStart();
+		} finally {
+			queueLock.unlock();
+		}
+		if (startDrain) {
+			virtualThreadExecutor.execute(this::drain);
+		}
+	}
+
+	// The last message, the session is closed once it has gone.
+	public void sendAndClose(String message) {
+		boolean startDrain = false;
+		queueLock.lock();
+		try {
+			if (overloaded) {
+				return;
+			}
+			delayedClose = true;
+			controlLane.add(PreparedFrame.text(message));
+			startDrain = takeDrainStart();
+		} finally {
+			queueLock.unlock();
+		}
+		if (startDrain) {
+			virtualThreadExecutor.execute(this::drain);
+		}
+	}
+
+	/*
+	 * The snapshot frames of a tick for a joining browser go on the control lane, so they are sent
+	 * before the position frames of the later ticks.  A browser which already has a later tick's
+	 * frames, or joined before the first tick, asks for a keyframe instead of moving its players back.
+	 */
+	public void sendSnapshot(List<PreparedFrame> frames) {
+		boolean startDrain = false;
+		queueLock.lock();
 		try {
-			sender(message);
-		} catch (InterruptedException e) {
-			log.error("Send to " + playerId + " interrupted");
+			if (overloaded) {
+				return;
+			}
+			if (frames.isEmpty() || lastTick > frames.get(0).getTick()) {
+				keyframeWanted = true;
+			}
+			controlLane.addAll(frames);
+			startDrain = takeDrainStart();
+		} finally {
+			queueLock.unlock();
+		}
+		if (startDrain) {
+			virtualThreadExecutor.execute(this::drain);
+		}
+	}
+
+	// Called with the queue lock held, true if the caller starts the drain.
+	private boolean takeDrainStart() {
+		if (draining) {
+			return false;
+		}
+		draining = true;
+		return true;
+	}
+
+	private void offerPosition(PreparedFrame frame) {
+		long tick = frame.getTick();
+		if (overloaded) {
+			return;
+		}
+		if (downgraded && tick - lastFullTick >= policy.downgradeIntervalTicks()) {
+			keyframeWanted = true;
+			lastFullTick = tick;
+		}
+		if (downgraded && !frame.isFull()) {
+			metrics.getFramesSkipped().increment();
+			return;
+		}
+		if (tick > lastTick) {
+			lastTick = tick;
+			checkLag(tick);
+			if (overloaded) {
+				return;
+			}
+		}
+		if (frame.isFull()) {
+			lastFullTick = tick;
+		}
+		PreparedFrame oldest = positionLane.peekFirst();
+		int dropped = 0;
+		if (oldest != null && oldest.getTick() < frame.getTick()) {
+			// Stale, the new tick has the latest positions.
+			dropped = positionLane.size();
+			positionLane.clear();
+		} else if (positionLane.size() == MAX_POSITION_FRAMES) {
+			positionLane.pollFirst();
+			dropped = 1;
+		}
+		if (dropped > 0) {
+			metrics.getFramesDropped().add(dropped);
+			keyframeWanted = true;
+		}
+		positionLane.add(frame);
+	}
+
+	// First frame of a tick, the browser is behind if the frames of an earlier tick are still queued.
+	private void checkLag(long tick) {
+		if (positionLane.isEmpty()) {
+			behindSince = -1;
+			if (keptUpSince < 0) {
+				keptUpSince = tick;
+			}
+			if (downgraded && tick - keptUpSince >= policy.lagTicks()) {
+				log.info("Session " + getSessionId() + " caught up, normal position frames");
+				downgraded = false;
+			}
+			return;
+		}
+		keptUpSince = -1;
+		if (behindSince < 0) {
+			behindSince = tick;
+		}
+		if (tick - behindSince < policy.lagTicks()) {
+			return;
+		}
+		behindSince = -1;
+		if (!downgraded) {
+			log.info("Session " + getSessionId() + " behind for " + policy.lagTicks() + " ticks, downgraded");
+			metrics.getSessionsDowngraded().increment();
+			downgraded = true;
+			lastFullTick = tick;
+		} else {
+			log.info("Session " + getSessionId() + " still behind, closing");
+			metrics.getSessionsOverloaded().increment();
+			overloaded = true;
+			controlLane.clear();
+			positionLane.clear();
+			// StructuredTaskScope is still a preview API in Java 25, so the drain thread is interrupted itself.
+			if (drainThread != null) {
+				drainThread.interrupt();
+			}
+			virtualThreadExecutor.execute(this::closeOverloaded);
+		}
+	}
+
+	private void closeOverloaded() {
+		try {
+			closed = true;
+			session.close(new CloseStatus(WsCloseStatus.SERVICE_OVERLOAD.getCode(), "Too slow"));
+		} catch (IOException e) {
+			log.error("Closing session " + getSessionId() + ": " + e.getMessage());
+		}
+	}
+
+	// Frames waiting to be sent.
+	public int getQueueDepth() {
+		queueLock.lock();
+		try {
+			return controlLane.size() + positionLane.size();
+		} finally {
+			queueLock.unlock();
+		}
+	}
+
+	// False for a duplicate or out of order key message.
+	boolean takeKeySeq(int seq) {
+		if (!MessageDecoder.isNewer(seq, keySeq)) {
+			return false;
+		}
+		keySeq = seq;
+		return true;
+	}
+
+	public void requestKeyframe() {
+		keyframeWanted = true;
+	}
+
+	public boolean takeKeyframeWanted() {
+		if (!keyframeWanted) {
+			return false;
+		}
+		keyframeWanted = false;
+		return true;
+	}
+
+	private void drain() {
+		try {
+			while (true) {
+				PreparedFrame frame;
+				boolean closeAfter;
+				queueLock.lock();
+				try {
+					frame = controlLane.poll();
+					if (frame == null) {
+						frame = positionLane.poll();
+					}
+					if (frame == null) {
+						draining = false;
+						drainThread = null;
+						return;
+					}
+					drainThread = Thread.currentThread();
+					// Taken with the lock, so a closing message queued during the send isn't cut off.
+					closeAfter = delayedClose && controlLane.isEmpty();
+				} finally {
+					queueLock.unlock();
+				}
+				if (sender(frame.toMessage())) {
+					metrics.getFramesSent().increment();
+					metrics.getBytesSent().add(frame.getSize());
+					metrics.getSendLatency().record(System.nanoTime() - frame.getCreatedNanos(), TimeUnit.NANOSECONDS);
+				}
+				// Close after the error message has gone.
+				if (closeAfter && !closed) {
+					close();
+				}
+			}
 		} catch (IOException e) {
 			log.error("Error sending to " + playerId, e);
+			stopDrain();
+		} catch (RuntimeException e) {
+			stopDrain();
+			throw e;
+		}
+	}
+
+	private void stopDrain() {
+		queueLock.lock();
+		try {
+			controlLane.clear();
+			positionLane.clear();
+			draining = false;
+			drainThread = null;
+		} finally {
+			queueLock.unlock();
 		}
 	}
 	
-	private void sender(String message) throws InterruptedException, IOException {
-		sendLock.lockInterruptibly();
+	// False if the session was closed.
+	private boolean sender(WebSocketMessage<?> message) throws IOException {
 		try {
 			if (!closed && session.isOpen()) {
-				session.sendMessage(new TextMessage(message));
+				session.sendMessage(message);
+				return true;
 			}
 		} catch (IllegalStateException e) {
 			log.error("WebSocket Illegal State, closing session");
-			delayedClose = true;
-		} finally {
-			sendLock.unlock();
-		}
-		if (delayedClose && !closed) {
 			close();
 		}
+		return false;
 	}
 
 	public void close() throws IOException {
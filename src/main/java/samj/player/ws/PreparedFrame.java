@@ -0,0 +1,104 @@
+package samj.player.ws;
+
+import java.nio.ByteBuffer;
+
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import lombok.Getter;
+
+/*
+ * A message built once and sent to any number of sessions.
+ *
+ * The text message is immutable so the one instance is shared.  A binary frame is kept in a
+ * read-only buffer and each session sends a duplicate, which shares the bytes but has its own
+ * position, because sending a buffer consumes it.
+ *
+ * Position frames have the tick number they were built on, a session can drop the position
+ * frames of an older tick which haven't been sent yet.  Other frames are never dropped.  A full
+ * position frame has all the players in its area, not just the ones which moved.  The time the
+ * frame was built is kept for the send latency metric.
+ */
+public final class PreparedFrame {
+
+	private static final long NO_TICK = -1;
+
+	private final TextMessage text;
+	private final ByteBuffer binary;
+	// Payload bytes, counted once, the text message would encode its payload on each call.
+	@Getter
+	private final int size;
+	@Getter
+	private final long tick;
+	@Getter
+	private final boolean full;
+	@Getter
+	private final long createdNanos = System.nanoTime();
+
+	private PreparedFrame(TextMessage text, ByteBuffer binary, long tick, boolean full) {
+		this.text = text;
+		this.binary = binary;
+		this.size = (text != null) ? utf8Length(text.getPayload()) : binary.remaining();
+		this.tick = tick;
+		this.full = full;
+	}
+
+	public static PreparedFrame text(String message) {
+		return new PreparedFrame(new TextMessage(message), null, NO_TICK, false);
+	}
+
+	public static PreparedFrame positions(long tick, boolean full, String message) {
+		return new PreparedFrame(new TextMessage(message), null, tick, full);
+	}
+
+	public static PreparedFrame positions(long tick, boolean full, byte[] frame) {
+		return new PreparedFrame(null, ByteBuffer.wrap(frame).asReadOnlyBuffer(), tick, full);
+	}
+
+	public boolean isBinary() {
+		return binary != null;
+	}
+
+	public boolean isPositions() {
+		return tick != NO_TICK;
+	}
+
+	// Null for a binary frame.
+	public String getText() {
+		return (text != null) ? text.getPayload() : null;
+	}
+
+	// The payload bytes, a copy for a binary frame.
+	byte[] toBytes() {
+		if (text != null) {
+			return text.asBytes();
+		}
+		byte[] bytes = new byte[binary.remaining()];
+		binary.duplicate().get(bytes);
+		return bytes;
+	}
+
+	// Message for one session.
+	WebSocketMessage<?> toMessage() {
+		return (text != null) ? text : new BinaryMessage(binary.duplicate());
+	}
+
+	// The UTF-8 length without encoding, an unpaired surrogate is encoded as one byte '?'.
+	static int utf8Length(String s) {
+		int length = s.length();
+		int bytes = length;
+		for (int i = 0; i < length; i++) {
+			char c = s.charAt(i);
+			if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+				bytes += 2;
+				i++;
+			} else if (c >= 0x800 && !Character.isSurrogate(c)) {
+				bytes += 2;
+			} else if (c >= 0x80 && c < 0x800) {
+				bytes++;
+			}
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,13 @@
+package samj.player.ws;
+
+/*
+ * Limits for the messages queued on each session, see PlayerWebSocketSession.
+ *
+ * lagTicks: ticks a browser can stay behind before it is downgraded, and then closed.
+ * downgradeIntervalTicks: a downgraded browser only gets all its players every this many ticks.
+ * sendTimeoutMillis: longest wait for one message to be written to the socket.
+ */
+public record SendPolicy(int lagTicks, int downgradeIntervalTicks, long sendTimeoutMillis) {
+
+	public static final SendPolicy DEFAULT = new SendPolicy(25, 10, 2000);
+}
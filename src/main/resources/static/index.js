@@ -1,5 +1,6 @@
 const nameFont = '12px sans-serif';
 const canvas = document.getElementsByTagName('canvas')[0];
+const canvasDiv = document.getElementById('canvas-div');
 var ctx = canvas.getContext("2d");
 
 var ws = undefined;
@@ -14,6 +15,13 @@ var upPressed = false;
 var downPressed = false;
 var leftPressed = false;
 var rightPressed = false;
+var viewTimer = undefined;
+var binaryFrames = true; // ask the server for binary position frames
+var handleIds = []; // player id for each handle in the binary frames
+var keySeq = 0; // sequence number of the binary key messages, 4 bits
+var rosterVersion = -1; // version of the last roster message, -1 while waiting for a snapshot
+var roomId = undefined; // room on the server, sent again when reconnecting
+var nextRoomId = undefined; // room to reconnect to after a room split
 
 function appendOutText(text) {
     document.getElementById('out-text').value += '\n' + text;
@@ -25,23 +33,32 @@ function reqListener() {
 }
 
 function handleServerMessage(data) {
+    if (data.data instanceof ArrayBuffer) {
+        handleBinaryFrame(new DataView(data.data));
+        return;
+    }
     let text = data.data;
     // console.log('Server Message: ' + text);
     if (text.startsWith('$p:')) {
         let content = text.substring('$p:'.length);
         playersMoved(content);
+    } else if (text.startsWith('$snap:')) {
+        let content = text.substring('$snap:'.length);
+        snapshot(content);
+    } else if (text.startsWith('$r:')) {
+        let content = text.substring('$r:'.length);
+        roster(content);
     } else if (text.startsWith('$n:')) {
         let content = text.substring('$n:'.length);
         nameList(content);
-    } else if (text.startsWith('$end:')) {
-        let content = text.substring('$end:'.length);
-        endPlayer(content);
     } else if (text.startsWith('$err:')) {
         let content = text.substring('$err:'.length);
         wsError = content;
     } else if (text.startsWith('$init:')) {
         let content = text.substring('$init:'.length);
         initResp(content);
+    } else if (text.startsWith('$room:')) {
+        nextRoomId = text.substring('$room:'.length);
     } else if (text.startsWith('$send*:')) {
         let content = text.substring('$send*:'.length);
         appendOutText(content);
@@ -52,10 +69,124 @@ function handleServerMessage(data) {
 
 function playersMoved(content) {
     let arr = content.split('\n');
+    let cleared = [];
     for (let item of arr) {
         let player = parsePlayer(item);
+        if (Number.isFinite(player.drawnX) && Number.isFinite(player.drawnY)) {
+            cleared.push({id: player.id, x: player.drawnX, y: player.drawnY});
+        }
         playerMoved(player);
     }
+    redrawUnderCleared(cleared);
+}
+
+// All the players on joining: the roster version, then "id\tx\ty\thandle", with "\tname" for the
+// players with a browser.
+function snapshot(content) {
+    let arr = content.split('\n');
+    rosterVersion = Number(arr[0]);
+    for (let item of arr.slice(1)) {
+        let arr = item.split('\t');
+        let player = parsePlayer(item);
+        if (arr.length > 3) {
+            handleIds[Number(arr[3])] = player.id;
+        }
+        if (arr.length > 4) {
+            updatePlayerName(player, arr.slice(4).join('\t'));
+        }
+        playerMoved(player);
+    }
+}
+
+// A tick's joins "+id:name" and leaves "-id", after the version.  Ask for the snapshot again if
+// a version was missed.
+function roster(content) {
+    let arr = content.split('\n');
+    let version = Number(arr[0]);
+    if (rosterVersion < 0 || version <= rosterVersion) {
+        return;
+    }
+    if (version != rosterVersion + 1) {
+        console.log('Roster version ' + version + ' after ' + rosterVersion + ', resync');
+        rosterVersion = -1;
+        ws.send('$resync:');
+        return;
+    }
+    rosterVersion = version;
+    for (let item of arr.slice(1)) {
+        if (item.startsWith('+')) {
+            nameList(item.substring(1));
+        } else if (item.startsWith('-')) {
+            let player = players[item.substring(1)];
+            if (player) {
+                if (player.name) {
+                    appendOutText('[' + player.name + ']:<exit>');
+                }
+                endPlayer(player.id);
+            }
+        }
+    }
+}
+
+// Only the players which moved are sent, so redraw the still players which were partly cleared.
+function redrawUnderCleared(cleared) {
+    if (cleared.length == 0) {
+        return;
+    }
+    let size = playerImg.naturalWidth;
+    let sent = new Set(cleared.map(c => c.id));
+    for (let id in players) {
+        let player = players[id];
+        if (!player || sent.has(id) || !Number.isFinite(player.drawnX) || !Number.isFinite(player.drawnY)) {
+            continue;
+        }
+        for (let c of cleared) {
+            if (Math.abs(c.x - player.drawnX) < size * 2 && Math.abs(c.y - player.drawnY) < size) {
+                playerMoved(player);
+                break;
+            }
+        }
+    }
+}
+
+// Binary position frame, see PositionFrames.java.
+function handleBinaryFrame(view) {
+    if (view.byteLength < 5 || view.getUint8(0) != 1) {
+        appendOutText('Unknown binary frame, length ' + view.byteLength);
+        return;
+    }
+    // let tick = view.getUint32(1);
+    let offset = 5;
+    let cleared = [];
+    while (offset + 6 <= view.byteLength) {
+        let handleAndFlag = view.getUint16(offset);
+        let x = view.getInt16(offset + 2);
+        let y = view.getInt16(offset + 4);
+        offset += 6;
+        let handle = handleAndFlag & 0x7fff;
+        if (handleAndFlag & 0x8000) {
+            let len = view.getUint8(offset);
+            let id = '';
+            for (let i = 0; i < len; i++) {
+                id += String.fromCharCode(view.getUint8(offset + 1 + i));
+            }
+            offset += 1 + len;
+            handleIds[handle] = id;
+        }
+        let id = handleIds[handle];
+        if (!id) {
+            // Handle not known yet, the next keyframe has it.
+            continue;
+        }
+        let player = getPlayer(id);
+        if (Number.isFinite(player.drawnX) && Number.isFinite(player.drawnY)) {
+            cleared.push({id: player.id, x: player.drawnX, y: player.drawnY});
+        }
+        player.x = x;
+        player.y = y;
+        playerMoved(player);
+    }
+    redrawUnderCleared(cleared);
 }
 
 function playerMoved(player) {
@@ -89,6 +220,7 @@ function playerMoved(player) {
     if (player.id == playerId) {
         ctx.fillStyle = 'lightgray';
         ctx.fillRect(player.x, player.y, img.naturalWidth, img.naturalHeight);
+        followPlayer(player, img);
     }
     ctx.drawImage(img, player.x, player.y);
     if (player.name) {
@@ -100,6 +232,36 @@ function playerMoved(player) {
     }
 }
 
+// Scroll the board when the user's player goes out of the visible area.
+function followPlayer(player, img) {
+    let left = canvasDiv.scrollLeft;
+    let top = canvasDiv.scrollTop;
+    let width = canvasDiv.clientWidth;
+    let height = canvasDiv.clientHeight;
+    if (player.x < left || player.x + img.naturalWidth > left + width) {
+        canvasDiv.scrollLeft = player.x + (img.naturalWidth / 2) - (width / 2);
+    }
+    if (player.y < top || player.y + img.naturalHeight > top + height) {
+        canvasDiv.scrollTop = player.y + (img.naturalHeight / 2) - (height / 2);
+    }
+}
+
+// The server only sends the players in or near the visible area of the board.
+function viewChanged() {
+    if (viewTimer) {
+        return;
+    }
+    viewTimer = setTimeout(sendView, 50);
+}
+
+function sendView() {
+    viewTimer = undefined;
+    if (ws && ws.readyState == WebSocket.OPEN) {
+        ws.send('$view:' + Math.round(canvasDiv.scrollLeft) + '\t' + Math.round(canvasDiv.scrollTop) + '\t' +
+                canvasDiv.clientWidth + '\t' + canvasDiv.clientHeight);
+    }
+}
+
 function parsePlayer(playerDesc) {
     let arr = playerDesc.split('\t');
     let player = getPlayer(arr[0]);
@@ -172,6 +334,8 @@ function initResp(content) {
                 width = parsePos(value);
             } else if (id == 'h') {
                 height = parsePos(value);
+            } else if (id == 'room') {
+                roomId = value;
             } else if (id == 'id' && value.length > 0) {
                 // if previous player id exists
                 if (playerId && playerId != value) {
@@ -184,7 +348,7 @@ function initResp(content) {
         }
     }
     if (Number.isFinite(width) && Number.isFinite(height)) {
-        if (width != canvas.width && height != canvas.height) {
+        if (width != canvas.width || height != canvas.height) {
             console.log('Resize canvas ' + width + ', ' + height);
             canvas.width = width;
             canvas.height = height;
@@ -192,6 +356,7 @@ function initResp(content) {
             ctx = canvas.getContext("2d");
         }
     }
+    sendView();
 }
 
 function getInitName() {
@@ -224,7 +389,10 @@ function connect() {
         return;
     }
     console.log('Connect');
-    ws = new WebSocket('ws://localhost:8080/ws/notifications?name=' + chatName);
+    let proto = binaryFrames ? '&proto=bin' : '';
+    let room = roomId ? '&room=' + roomId : '';
+    ws = new WebSocket('ws://localhost:8080/ws/notifications?name=' + chatName + proto + room);
+    ws.binaryType = 'arraybuffer';
     ws.onmessage = handleServerMessage;
     ws.onopen = function() {
         announce('Connected');
@@ -232,6 +400,21 @@ function connect() {
         // setTimeout(sendName, 50);
     }
     ws.onclose = function() {
+        if (nextRoomId) {
+            // The room was split, join the new room with a clean board.
+            announce('Moving to room ' + nextRoomId);
+            roomId = nextRoomId;
+            nextRoomId = undefined;
+            players = {};
+            handleIds = [];
+            keySeq = 0;
+            rosterVersion = -1;
+            playerId = undefined;
+            ctx.clearRect(0, 0, canvas.width, canvas.height);
+            ws = undefined;
+            setTimeout(connect, 100);
+            return;
+        }
         if (wsError) {
             announce('FAILURE, ' + wsError);
             wsError = undefined;
@@ -241,6 +424,7 @@ function connect() {
         if (playerId) {
             endPlayer(playerId);
         }
+        rosterVersion = -1;
         ws = undefined;
     }
     // setConnected(true);
@@ -333,6 +517,16 @@ function keyUpDownHandler(e, value) {
     if (!ctrlPressed) {
         e.preventDefault();
     }
+    if (!ws) {
+        return;
+    }
+    if (binaryFrames) {
+        // One byte, see MessageDecoder.java: the sequence number and the key bits.
+        let keys = (upPressed ? 1 : (downPressed ? 2 : 0)) | (leftPressed ? 4 : (rightPressed ? 8 : 0));
+        ws.send(new Uint8Array([(keySeq << 4) | keys]));
+        keySeq = (keySeq + 1) & 0xf;
+        return;
+    }
     let text = '';
     if (upPressed) {
         text += 'U';
@@ -344,9 +538,7 @@ function keyUpDownHandler(e, value) {
     } else if (rightPressed) {
         text += 'R';
     }
-    if (ws) {
-        ws.send('$key:' + text);
-    }
+    ws.send('$key:' + text);
 }
 
 function userEnabled() {
@@ -441,6 +633,8 @@ function init() {
 
     document.addEventListener("keydown", keyDownHandler, true);
     document.addEventListener("keyup", keyUpHandler, true);
+    canvasDiv.addEventListener("scroll", viewChanged);
+    new ResizeObserver(viewChanged).observe(canvasDiv);
     
     setTimeout(getInitName, 50);
     setTimeout(postInit, 150);
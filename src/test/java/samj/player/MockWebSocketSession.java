@@ -27,10 +27,18 @@ public class MockWebSocketSession implements WebSocketSession {
 	private final Map<String, Object> attributeMap;
 	private final AtomicBoolean openStatus = new AtomicBoolean(true);
 	private final List<String> messages = new ArrayList<>();
+	// The benchmarks send too many messages to keep, or to wait for.
+	private volatile boolean recording = true;
+	private volatile Duration sendDelay = Duration.ofMillis(1);
 	
 	public MockWebSocketSession(String id, String name) {
+		this(id, Map.of("playerName", name));
+	}
+
+	// Handshake attributes, such as the player name and room.
+	public MockWebSocketSession(String id, Map<String, Object> attributeMap) {
 		this.id = id;
-		this.attributeMap = Map.of("playerName", name);
+		this.attributeMap = attributeMap;
 	}
 
 	@Override
@@ -88,16 +96,15 @@ public class MockWebSocketSession implements WebSocketSession {
 		return maxDataSize;
 	}
 
+	// One limit for both, as the container has.
 	@Override
 	public void setBinaryMessageSizeLimit(int messageSizeLimit) {
-		// TODO Auto-generated method stub
-		
+		this.maxDataSize = messageSizeLimit;
 	}
 
 	@Override
 	public int getBinaryMessageSizeLimit() {
-		// TODO Auto-generated method stub
-		return 0;
+		return maxDataSize;
 	}
 
 	@Override
@@ -108,15 +115,18 @@ public class MockWebSocketSession implements WebSocketSession {
 
 	@Override
 	public void sendMessage(WebSocketMessage<?> message) throws IOException {
-		if (message instanceof TextMessage textMessage) {
+		if (recording && message instanceof TextMessage textMessage) {
 			String text = textMessage.getPayload();
 			// log.info("websocket " + id + " message: " + text);
 			synchronized (messages) {
 				messages.add(text);
 			}
 		}
+		if (sendDelay.isZero()) {
+			return;
+		}
 		try {
-			Thread.sleep(Duration.ofMillis(1));
+			Thread.sleep(sendDelay);
 		} catch (InterruptedException e) {
 			log.error("Interrupted", e);
 		}
@@ -140,6 +150,14 @@ public class MockWebSocketSession implements WebSocketSession {
 		close();
 	}
 
+	public void setRecording(boolean recording) {
+		this.recording = recording;
+	}
+
+	public void setSendDelay(Duration sendDelay) {
+		this.sendDelay = sendDelay;
+	}
+
 	public List<String> getMessages() {
 		synchronized (messages) {
 			List<String> list = new ArrayList<>(messages);
@@ -35,7 +35,7 @@ class PlayerApplicationTests {
 
 	private void basicTests() throws Exception {
 		String playerId = playerService.getFirstPlayerId();
-		String text = playerService.getPlayerDesc(playerId);
+		String text = playerService.getPlayerDesc(playerService.getFirstRoomId(), playerId);
 		System.out.println("Player Id: " + playerId);
 		System.out.println("Player Desc: " + text);
 		
@@ -4,6 +4,8 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 import lombok.RequiredArgsConstructor;
+import samj.player.config.PlayerProperties;
+import samj.player.metrics.PlayerMetrics;
 import samj.player.service.PlayerService;
 import samj.player.util.JacksonMapper;
 import samj.player.ws.PlayerWebSocketHandler;
@@ -20,20 +22,31 @@ public class TestWebSocketConfig {
     	return new JacksonMapper();
     }
     
+    @Bean("playerProperties")
+    PlayerProperties getPlayerProperties() {
+    	return new PlayerProperties();
+    }
+
     @Bean("virtualThreadExecutor")
 	ExecutorService getVirtualThreadExecutor() {
 		return Executors.newVirtualThreadPerTaskExecutor();
 	}
     
+    @Bean("playerMetrics")
+    PlayerMetrics getPlayerMetrics() {
+    	return new PlayerMetrics();
+    }
+
     @Bean("playerService")
     PlayerService getPlayerService() {
-    	return new PlayerService(getVirtualThreadExecutor());
+    	return new PlayerService(getVirtualThreadExecutor(), getPlayerProperties(), getPlayerMetrics());
     }
     
     @Bean("customWebSocketHandler")
     PlayerWebSocketHandler getCustomWebSocketHandler() {
     	PlayerService playerService = getPlayerService();
-    	PlayerWebSocketHandler handler = new PlayerWebSocketHandler(getVirtualThreadExecutor(), getMapper(), playerService);
+    	PlayerWebSocketHandler handler = new PlayerWebSocketHandler(getVirtualThreadExecutor(), getMapper(), playerService,
+    			getPlayerMetrics(), getPlayerProperties().toSendPolicy(), getPlayerProperties().toDeflatePolicy());
     	playerService.setCustomWebSocketHandler(handler);
     	return handler;
     }
@@ -0,0 +1,27 @@
+package samj.player.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.bind.BindException;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+
+class PlayerPropertiesTests {
+
+	@Test
+	void boardSizeFitsBinaryFrames() {
+		PlayerProperties properties = bind(Map.of("player.board-width", "32767", "player.board-height", "2000"));
+		assertEquals(32767, properties.getBoardWidth());
+		assertEquals(2000, properties.getBoardHeight());
+		assertThrows(BindException.class, () -> bind(Map.of("player.board-width", "32768")));
+		assertThrows(BindException.class, () -> bind(Map.of("player.board-height", "0")));
+	}
+
+	private PlayerProperties bind(Map<String, String> settings) {
+		return new Binder(new MapConfigurationPropertySource(settings)).bind("player", PlayerProperties.class).get();
+	}
+}
@@ -0,0 +1,293 @@
+package samj.player.load;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.Histogram;
+
+/*
+ * One headless browser: it connects with the same query as index.js, presses arrow keys and
+ * follows its own player in the position frames, text or binary.
+ *
+ * The keys go round a cycle where each key changes the sign of a direction the player is moving
+ * in, so the first frame with the player moving the new way is the broadcast of the key press.
+ * A key against a wall, or a collision, can hide the change, and then the key is counted as
+ * unseen when the next one is pressed.
+ *
+ * The position frames of one tick are counted as one frame.  Binary frames have the tick number,
+ * so the missing ticks are counted exactly.  The text messages don't, so the messages less than
+ * half a tick apart are taken as the same tick, and a longer gap than a tick as dropped ticks.
+ *
+ * The keys are "$key" text messages, or the one byte binary key messages with binary frames.
+ *
+ * The listener methods are called one at a time for a connection, the key presses are on
+ * their own thread.
+ */
+class Bot implements WebSocket.Listener {
+
+	private static final String[] KEYS = {"R", "L", "D", "U", "DR", "UL", "UR", "DL"};
+
+	private final SwarmConfig config;
+	private final String name;
+	private final boolean slow;
+	private final long tickNanos;
+	private final CompletableFuture<Boolean> setup = new CompletableFuture<>();
+	private HttpClient client;
+	private volatile WebSocket ws;
+	private volatile boolean stopping = false;
+	private volatile String roomId = null;
+	private String nextRoomId = null;
+
+	// Only used by the listener.
+	private final StringBuilder text = new StringBuilder();
+	private ByteBuffer binary = ByteBuffer.allocate(8192);
+	private volatile String playerId = null;
+	private String[] handleIds = new String[64];
+	private boolean seen = false;
+	private int lastX;
+	private int lastY;
+	private long lastFrameNanos = 0;
+	private long lastTick = -1;
+
+	// The key waiting to be seen, set by the key thread and cleared by the listener.
+	private final AtomicLong keyNanos = new AtomicLong(0);
+	private volatile int keyDx;
+	private volatile int keyDy;
+	private int keyIndex;
+	private int keySeq = 0;
+
+	// Results, the histograms are in microseconds.
+	final Histogram latency = new Histogram(TimeUnit.MINUTES.toMicros(1), 3);
+	final Histogram interArrival = new Histogram(TimeUnit.MINUTES.toMicros(1), 3);
+	long frames = 0;
+	long dropped = 0;
+	long keysSent = 0;
+	long keysUnseen = 0;
+	long errors = 0;
+	long roomMoves = 0;
+	volatile boolean closedByServer = false;
+
+	Bot(SwarmConfig config, String name, boolean slow, int keyIndex) {
+		this.config = config;
+		this.name = name;
+		this.slow = slow;
+		this.tickNanos = config.tick().toNanos();
+		this.keyIndex = keyIndex;
+	}
+
+	// Completes when the bot has its player id, false if the connection failed.
+	CompletableFuture<Boolean> connect(HttpClient client) {
+		this.client = client;
+		String query = "?name=" + name + (config.binary() ? "&proto=bin" : "") + ((roomId != null) ? "&room=" + roomId : "");
+		client.newWebSocketBuilder().buildAsync(URI.create(config.url() + query), this).whenComplete((socket, e) -> {
+			if (e != null) {
+				errors++;
+				setup.complete(false);
+			}
+		});
+		return setup;
+	}
+
+	// Presses a key every keyInterval until stopped, from a random point in the interval.
+	void pressKeys(long startDelayNanos) throws InterruptedException {
+		Thread.sleep(Duration.ofNanos(startDelayNanos));
+		while (!stopping) {
+			WebSocket socket = ws;
+			if (socket != null && playerId != null && !socket.isOutputClosed()) {
+				String key = KEYS[keyIndex++ % KEYS.length];
+				keyDx = key.contains("L") ? -1 : (key.contains("R") ? 1 : 0);
+				keyDy = key.contains("U") ? -1 : (key.contains("D") ? 1 : 0);
+				if (keyNanos.getAndSet(System.nanoTime()) != 0) {
+					keysUnseen++;
+				}
+				keysSent++;
+				if (config.binary()) {
+					// Same as index.js, see MessageDecoder.
+					int keys = (keyDy < 0 ? 1 : (keyDy > 0 ? 2 : 0)) | (keyDx < 0 ? 4 : (keyDx > 0 ? 8 : 0));
+					socket.sendBinary(ByteBuffer.wrap(new byte[] {(byte) ((keySeq++ & 0xf) << 4 | keys)}), true).join();
+				} else {
+					socket.sendText("$key:" + key, true).join();
+				}
+			}
+			Thread.sleep(config.keyInterval());
+		}
+	}
+
+	void close() {
+		stopping = true;
+		WebSocket socket = ws;
+		if (socket != null && !socket.isOutputClosed()) {
+			socket.sendClose(WebSocket.NORMAL_CLOSURE, "").exceptionally(e -> null);
+		}
+	}
+
+	@Override
+	public void onOpen(WebSocket webSocket) {
+		ws = webSocket;
+		webSocket.request(1);
+	}
+
+	@Override
+	public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+		text.append(data);
+		if (last) {
+			onMessage(text.toString());
+			text.setLength(0);
+		}
+		return next(webSocket);
+	}
+
+	@Override
+	public CompletionStage<?> onBinary(WebSocket webSocket, ByteBuffer data, boolean last) {
+		if (binary.remaining() < data.remaining()) {
+			binary = ByteBuffer.allocate(Math.max(binary.capacity() * 2, binary.position() + data.remaining()))
+					.put(binary.flip());
+		}
+		binary.put(data);
+		if (last) {
+			binary.flip();
+			onPositionFrame(binary);
+			binary.clear();
+		}
+		return next(webSocket);
+	}
+
+	// A slow reader waits before it takes the next message, so the server's writes back up.
+	private CompletionStage<?> next(WebSocket webSocket) {
+		if (slow) {
+			CompletableFuture.delayedExecutor(config.slowRead().toNanos(), TimeUnit.NANOSECONDS)
+					.execute(() -> webSocket.request(1));
+		} else {
+			webSocket.request(1);
+		}
+		return null;
+	}
+
+	@Override
+	public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+		ws = null;
+		if (!stopping && nextRoomId != null) {
+			// The room was split, join the new room with a clean board as index.js does.
+			roomMoves++;
+			roomId = nextRoomId;
+			nextRoomId = null;
+			resetBoard();
+			connect(client);
+		} else if (!stopping) {
+			closedByServer = true;
+		}
+		setup.complete(false);
+		return null;
+	}
+
+	@Override
+	public void onError(WebSocket webSocket, Throwable error) {
+		ws = null;
+		errors++;
+		setup.complete(false);
+	}
+
+	private void resetBoard() {
+		playerId = null;
+		seen = false;
+		lastTick = -1;
+		lastFrameNanos = 0;
+		Arrays.fill(handleIds, null);
+	}
+
+	private void onMessage(String message) {
+		if (message.startsWith("$p:")) {
+			long now = countFrame(-1);
+			for (String line : message.substring(3).split("\n")) {
+				int tab1 = line.indexOf('\t');
+				int tab2 = line.indexOf('\t', tab1 + 1);
+				if (tab1 > 0 && tab2 > 0 && line.substring(0, tab1).equals(playerId)) {
+					moved(Integer.parseInt(line, tab1 + 1, tab2, 10), Integer.parseInt(line, tab2 + 1, line.length(), 10), now);
+				}
+			}
+		} else if (message.startsWith("$init:")) {
+			for (String field : message.substring(6).split("\t")) {
+				if (field.startsWith("id:")) {
+					playerId = field.substring(3);
+				} else if (field.startsWith("room:")) {
+					roomId = field.substring(5);
+				}
+			}
+			setup.complete(true);
+		} else if (message.startsWith("$room:")) {
+			nextRoomId = message.substring(6);
+		} else if (message.startsWith("$err:")) {
+			errors++;
+		}
+	}
+
+	// Same layout as PositionFrames.
+	private void onPositionFrame(ByteBuffer frame) {
+		if (frame.remaining() < 5 || frame.get() != 1) {
+			return;
+		}
+		long now = countFrame(frame.getInt() & 0xffffffffL);
+		while (frame.remaining() >= 6) {
+			int handle = frame.getShort() & 0xffff;
+			int x = frame.getShort();
+			int y = frame.getShort();
+			if ((handle & 0x8000) != 0) {
+				handle &= 0x7fff;
+				byte[] id = new byte[frame.get() & 0xff];
+				frame.get(id);
+				if (handle >= handleIds.length) {
+					handleIds = Arrays.copyOf(handleIds, Math.max(handle + 1, handleIds.length * 2));
+				}
+				handleIds[handle] = new String(id, StandardCharsets.US_ASCII);
+			}
+			if (handle < handleIds.length && playerId != null && playerId.equals(handleIds[handle])) {
+				moved(x, y, now);
+			}
+		}
+	}
+
+	// A frame of a new tick is counted and timed, the tick is -1 for text.
+	private long countFrame(long tick) {
+		long now = System.nanoTime();
+		boolean newTick = (tick >= 0) ? tick != lastTick : now - lastFrameNanos >= tickNanos / 2;
+		if (newTick) {
+			if (lastFrameNanos != 0) {
+				long gap = now - lastFrameNanos;
+				interArrival.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(gap), interArrival.getHighestTrackableValue()));
+				if (tick >= 0 && lastTick >= 0) {
+					dropped += Math.max(0, tick - lastTick - 1);
+				} else if (tick < 0) {
+					dropped += Math.max(0, Math.round((double) gap / tickNanos) - 1);
+				}
+			}
+			frames++;
+			lastFrameNanos = now;
+			lastTick = tick;
+		}
+		return now;
+	}
+
+	private void moved(int x, int y, long now) {
+		long sent = keyNanos.get();
+		if (seen && sent != 0) {
+			int dx = Integer.signum(x - lastX);
+			int dy = Integer.signum(y - lastY);
+			if ((keyDx == 0 || dx == keyDx) && (keyDy == 0 || dy == keyDy) && (dx != 0 || dy != 0) &&
+					keyNanos.compareAndSet(sent, 0)) {
+				latency.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(now - sent), latency.getHighestTrackableValue()));
+			}
+		}
+		seen = true;
+		lastX = x;
+		lastY = y;
+	}
+}
@@ -0,0 +1,142 @@
+package samj.player.load;
+
+import java.io.PrintStream;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.HdrHistogram.Histogram;
+
+/*
+ * Load generator: a swarm of headless bots on real websocket connections to a node, to find how
+ * many browsers it can take.  It reports the key press to broadcast latency, the time between
+ * the position frames and the frames dropped, over the whole swarm.
+ *
+ * Run against a node with:
+ *   mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=samj.player.load.BotSwarm \
+ *       -Dexec.args="url=ws://localhost:8080/ws/notifications bots=2000 seconds=60 slow=20"
+ *
+ * See SwarmConfig for the settings.
+ */
+public class BotSwarm {
+
+	private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(30);
+
+	private final SwarmConfig config;
+
+	public BotSwarm(SwarmConfig config) {
+		this.config = config;
+	}
+
+	public static void main(String[] args) throws Exception {
+		new BotSwarm(SwarmConfig.parse(args)).run().print(System.out);
+	}
+
+	public SwarmReport run() throws InterruptedException {
+		// The names are unique over the runs against the same node.
+		String runId = Long.toString(System.currentTimeMillis() % 1_000_000, 36);
+		List<Bot> bots = new ArrayList<>(config.bots());
+		for (int i = 0; i < config.bots(); i++) {
+			bots.add(new Bot(config, "bot" + runId + "-" + i, i < config.slowBots(), i));
+		}
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			HttpClient client = HttpClient.newBuilder().executor(executor).build();
+			long rampNanos = (config.bots() > 0) ? config.ramp().toNanos() / config.bots() : 0;
+			List<CompletableFuture<Boolean>> setups = new ArrayList<>(bots.size());
+			for (Bot bot : bots) {
+				setups.add(bot.connect(client));
+				if (rampNanos > 0) {
+					Thread.sleep(Duration.ofNanos(rampNanos));
+				}
+			}
+			int connected = 0;
+			long deadline = System.nanoTime() + CONNECT_TIMEOUT.toNanos();
+			for (CompletableFuture<Boolean> setup : setups) {
+				try {
+					long wait = Math.max(1, deadline - System.nanoTime());
+					connected += setup.get(wait, TimeUnit.NANOSECONDS) ? 1 : 0;
+				} catch (TimeoutException | ExecutionException e) {
+					// Counted as not connected.
+				}
+			}
+			long keyNanos = config.keyInterval().toNanos();
+			for (Bot bot : bots) {
+				long delay = ThreadLocalRandom.current().nextLong(Math.max(1, keyNanos));
+				executor.execute(() -> {
+					try {
+						bot.pressKeys(delay);
+					} catch (InterruptedException e) {
+						// Stopped.
+					}
+				});
+			}
+			Thread.sleep(config.duration());
+			for (Bot bot : bots) {
+				bot.close();
+			}
+			// Let the last messages in, then stop the key threads.
+			Thread.sleep(Duration.ofMillis(500));
+			executor.shutdownNow();
+			return SwarmReport.of(config, bots, connected);
+		}
+	}
+
+	/*
+	 * Latency and inter-arrival times are in microseconds.  Frames counts one per tick per bot.
+	 */
+	public record SwarmReport(SwarmConfig config, int connected, long keysSent, long keysUnseen, long frames,
+			long dropped, int closedByServer, long roomMoves, long errors, Histogram latency, Histogram interArrival) {
+
+		static SwarmReport of(SwarmConfig config, List<Bot> bots, int connected) {
+			Histogram latency = new Histogram(TimeUnit.MINUTES.toMicros(1), 3);
+			Histogram interArrival = new Histogram(TimeUnit.MINUTES.toMicros(1), 3);
+			long keysSent = 0;
+			long keysUnseen = 0;
+			long frames = 0;
+			long dropped = 0;
+			int closedByServer = 0;
+			long roomMoves = 0;
+			long errors = 0;
+			for (Bot bot : bots) {
+				latency.add(bot.latency);
+				interArrival.add(bot.interArrival);
+				keysSent += bot.keysSent;
+				keysUnseen += bot.keysUnseen;
+				frames += bot.frames;
+				dropped += bot.dropped;
+				closedByServer += bot.closedByServer ? 1 : 0;
+				roomMoves += bot.roomMoves;
+				errors += bot.errors;
+			}
+			return new SwarmReport(config, connected, keysSent, keysUnseen, frames, dropped, closedByServer, roomMoves,
+					errors, latency, interArrival);
+		}
+
+		public void print(PrintStream out) {
+			out.println("Bots " + connected + "/" + config.bots() + " connected, " + config.slowBots() + " slow, " +
+					(config.binary() ? "binary" : "text") + " frames, " + config.duration().toSeconds() + "s");
+			out.println("Keys sent " + keysSent + ", seen " + latency.getTotalCount() + ", unseen " + keysUnseen);
+			printPercentiles(out, "Key to broadcast ms", latency);
+			printPercentiles(out, "Frame interval ms", interArrival);
+			out.printf("Frame jitter ms: %.2f std dev against a %dms tick%n", interArrival.getStdDeviation() / 1000.0,
+					config.tick().toMillis());
+			out.println("Frames " + frames + ", dropped " + dropped + ", closed by server " + closedByServer +
+					", room moves " + roomMoves + ", errors " + errors);
+		}
+
+		private static void printPercentiles(PrintStream out, String title, Histogram histogram) {
+			out.printf("%s: p50 %.2f, p90 %.2f, p99 %.2f, p99.9 %.2f, max %.2f%n", title,
+					histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(90) / 1000.0,
+					histogram.getValueAtPercentile(99) / 1000.0, histogram.getValueAtPercentile(99.9) / 1000.0,
+					histogram.getMaxValue() / 1000.0);
+		}
+	}
+}
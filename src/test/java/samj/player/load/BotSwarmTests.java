@@ -0,0 +1,44 @@
+package samj.player.load;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.context.annotation.Import;
+
+import samj.player.config.WebSocketConfig;
+
+// A small swarm against the app on a random port.  Run with: mvn test -Pbenchmark -Dtest=BotSwarmTests
+@SpringBootTest(classes = BotSwarmTests.SwarmApp.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+		properties = "player.room-split-players=0")
+@Tag("benchmark")
+class BotSwarmTests {
+
+	// The app's websocket config, without the other test configs in the package scan.
+	@SpringBootConfiguration
+	@EnableAutoConfiguration
+	@Import(WebSocketConfig.class)
+	static class SwarmApp {
+	}
+
+	@LocalServerPort
+	int port;
+
+	@Test
+	void swarm() throws Exception {
+		for (boolean binary : new boolean[] {false, true}) {
+			SwarmConfig config = SwarmConfig.parse("url=ws://localhost:" + port + "/ws/notifications", "bots=200",
+					"seconds=10", "keyMillis=300", "binary=" + binary, "slow=5", "slowMillis=100");
+			BotSwarm.SwarmReport report = new BotSwarm(config).run();
+			report.print(System.out);
+			assertEquals(200, report.connected());
+			assertTrue(report.latency().getTotalCount() > 0);
+			assertTrue(report.frames() > 0);
+		}
+	}
+}
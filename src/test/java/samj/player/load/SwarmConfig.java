@@ -0,0 +1,54 @@
+package samj.player.load;
+
+import java.net.URI;
+import java.time.Duration;
+
+/*
+ * Settings for a BotSwarm run, from name=value arguments:
+ *
+ *   url          the node's websocket, ws://localhost:8080/ws/notifications
+ *   bots         connections to open, 100
+ *   seconds      run time after the connections are open, 30
+ *   rampSeconds  time to open the connections over, 0 for all at once
+ *   keyMillis    time between each bot's key presses, 500
+ *   binary       true for the binary position frames (proto=bin), false for the $p text messages
+ *   tickMillis   the node's player.tick-millis, for the jitter and the dropped text frames, 20
+ *   slow         bots which read slowly, 0
+ *   slowMillis   pause before a slow bot reads each message, 200
+ */
+public record SwarmConfig(URI url, int bots, Duration duration, Duration ramp, Duration keyInterval, boolean binary,
+		Duration tick, int slowBots, Duration slowRead) {
+
+	public static SwarmConfig parse(String... args) {
+		String url = "ws://localhost:8080/ws/notifications";
+		int bots = 100;
+		long seconds = 30;
+		long rampSeconds = 0;
+		long keyMillis = 500;
+		boolean binary = false;
+		long tickMillis = 20;
+		int slow = 0;
+		long slowMillis = 200;
+		for (String arg : args) {
+			int index = arg.indexOf('=');
+			if (index < 0) {
+				throw new IllegalArgumentException("Not name=value: " + arg);
+			}
+			String value = arg.substring(index + 1);
+			switch (arg.substring(0, index)) {
+				case "url" -> url = value;
+				case "bots" -> bots = Integer.parseInt(value);
+				case "seconds" -> seconds = Long.parseLong(value);
+				case "rampSeconds" -> rampSeconds = Long.parseLong(value);
+				case "keyMillis" -> keyMillis = Long.parseLong(value);
+				case "binary" -> binary = Boolean.parseBoolean(value);
+				case "tickMillis" -> tickMillis = Long.parseLong(value);
+				case "slow" -> slow = Integer.parseInt(value);
+				case "slowMillis" -> slowMillis = Long.parseLong(value);
+				default -> throw new IllegalArgumentException("Unknown setting: " + arg);
+			}
+		}
+		return new SwarmConfig(URI.create(url), bots, Duration.ofSeconds(seconds), Duration.ofSeconds(rampSeconds),
+				Duration.ofMillis(keyMillis), binary, Duration.ofMillis(tickMillis), slow, Duration.ofMillis(slowMillis));
+	}
+}
@@ -0,0 +1,67 @@
+package samj.player.service;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * The tick of a board of drones for each broad-phase strategy, with bands > 1 for the parallel tick.
+ *
+ * Run with: mvn test -Pjmh -Djmh.args=BoardBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class BoardBenchmark {
+
+	@Param({"10", "100", "1000", "10000"})
+	int entities;
+
+	@Param({"BRUTE", "GRID", "SWEEP"})
+	BroadPhaseType broadPhase;
+
+	@Param({"0", "4"})
+	int bands;
+
+	private Board board;
+	private ForkJoinPool pool;
+
+	@Setup
+	public void setup() throws InterruptedException {
+		// The same density as a full default board.
+		int width = Math.max(Board.DEFAULT_WIDTH, (int) Math.sqrt(entities * 12000.0 * 1.5));
+		int height = Math.max(Board.DEFAULT_HEIGHT, width * 2 / 3);
+		board = new Board(width, height, broadPhase, bands);
+		pool = (bands > 1) ? new ForkJoinPool(Runtime.getRuntime().availableProcessors()) : null;
+		for (int i = 0; i < entities; i++) {
+			board.addPlayer("d" + i, true);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (pool != null) {
+			pool.shutdown();
+		}
+	}
+
+	@Benchmark
+	public AreaOfInterest animate() throws InterruptedException {
+		return board.animate(pool);
+	}
+}
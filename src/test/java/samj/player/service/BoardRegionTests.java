@@ -0,0 +1,171 @@
+package samj.player.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import samj.player.cluster.SocketBoardBus;
+import samj.player.config.PlayerProperties;
+import samj.player.metrics.PlayerMetrics;
+import samj.player.util.JacksonMapper;
+import samj.player.ws.PlayerWebSocketHandler;
+import samj.player.ws.SendPolicy;
+
+class BoardRegionTests {
+
+	// Each region has its own board and bus, as on separate nodes.
+	@Test
+	void dronesHandedOffBetweenRegions() throws Exception {
+		int regionCount = 3;
+		int drones = 30;
+		ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+		List<SocketBoardBus> buses = loopbackBuses(regionCount, executor);
+		List<Board> boards = new ArrayList<>();
+		List<BoardRegion> regions = new ArrayList<>();
+		for (int r = 0; r < regionCount; r++) {
+			// Viewed whole, so the names are in the roster messages.
+			Board board = new Board(1200, 400, BroadPhaseType.GRID, 0, 1200, 400, InputMode.LOCKED, new PlayerMetrics());
+			regions.add(new BoardRegion(board, r, regionCount, buses.get(r)));
+			boards.add(board);
+			for (int i = 0; i < drones / regionCount; i++) {
+				board.addPlayer("d" + r + "-" + i, true);
+			}
+		}
+		Player walker = boards.get(0).addPlayer("walker", false);
+		boolean handedOff = false;
+		boolean ghostSeen = false;
+		boolean walkerNamed = false;
+		for (int tick = 0; tick < 400; tick++) {
+			for (int r = 0; r < regionCount; r++) {
+				regions.get(r).animate(null, false);
+			}
+			// Every drone is owned by exactly one region, the one for its strip.
+			Set<String> owned = new HashSet<>();
+			for (int r = 0; r < regionCount; r++) {
+				PlayerStore store = boards.get(r).getStore();
+				int ownedHere = 0;
+				int dronesHere = 0;
+				for (int slot = 0; slot < store.count; slot++) {
+					if (!store.ghost[slot] && store.auto[slot]) {
+						assertTrue(owned.add(store.players[slot].getId()));
+						assertEquals(r, regions.get(r).regionOf(store.x[slot]));
+						dronesHere++;
+					}
+					ownedHere += store.ghost[slot] ? 0 : 1;
+					ghostSeen |= store.ghost[slot];
+				}
+				// The ghosts aren't counted as the board's players or drones.
+				assertEquals(ownedHere, boards.get(r).getPlayerCount());
+				assertEquals(dronesHere, boards.get(r).getDroneCount());
+				// The browsers are told to erase the drones handed off and the ghosts which have gone.
+				List<String> events = boards.get(r).getTickRoster().events();
+				handedOff |= events.stream().anyMatch(e -> e.startsWith("-"));
+				walkerNamed |= (r > 0 && events.contains("+" + walker.getId() + ":walker"));
+			}
+			// Some are on the bus.
+			assertTrue(owned.size() <= drones);
+			// The browser's player stays on its own node, with the right arrow held down.
+			boards.get(0).playerKey(walker.getId(), false, false, false, true);
+			assertTrue(walker.getSlot() >= 0);
+			assertFalse(boards.get(0).getStore().ghost[walker.getSlot()]);
+		}
+		// None were lost on the way, once the messages on the network have arrived.
+		int owned = 0;
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (owned != drones && System.nanoTime() < deadline) {
+			Thread.sleep(Duration.ofMillis(10));
+			owned = 0;
+			for (int r = 0; r < regionCount; r++) {
+				regions.get(r).receive();
+				PlayerStore store = boards.get(r).getStore();
+				for (int slot = 0; slot < store.count; slot++) {
+					owned += (!store.ghost[slot] && store.auto[slot]) ? 1 : 0;
+				}
+			}
+		}
+		assertEquals(drones, owned);
+		assertTrue(handedOff);
+		assertTrue(ghostSeen);
+		assertTrue(walkerNamed);
+		// The walker got to the last strip, and is a ghost there.
+		assertEquals(2, regions.get(0).regionOf(walker.getX()));
+		assertTrue(boards.get(2).getPlayer(walker.getId()) != null);
+		for (SocketBoardBus bus : buses) {
+			bus.close();
+		}
+		executor.shutdownNow();
+	}
+
+	// Rooms set up as regions tick from the start and swap their drones, with no browsers.
+	@Test
+	void regionRoomsTickWithoutBrowsers() throws Exception {
+		ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+		List<SocketBoardBus> buses = loopbackBuses(2, executor);
+		PlayerMetrics metrics = new PlayerMetrics();
+		PlayerProperties serviceProperties = new PlayerProperties();
+		PlayerService playerService = new PlayerService(executor, serviceProperties, metrics);
+		PlayerWebSocketHandler handler = new PlayerWebSocketHandler(executor, new JacksonMapper(), playerService, metrics,
+				SendPolicy.DEFAULT, serviceProperties.toDeflatePolicy());
+		List<Room> rooms = new ArrayList<>();
+		for (int r = 0; r < 2; r++) {
+			PlayerProperties properties = new PlayerProperties();
+			properties.setBoardWidth(200);
+			properties.setBoardHeight(100);
+			properties.getRegion().setIndex(r);
+			properties.getRegion().setPeers(List.of("a", "b"));
+			Room room = new Room(Integer.toString(r + 1), executor, handler, properties, 0, null, metrics, buses.get(r));
+			room.addDrones();
+			rooms.add(room);
+		}
+		// The snapshot has the ghosts, the counts only the players the room owns.
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		boolean ghosts = false;
+		while (!ghosts && System.nanoTime() < deadline) {
+			Thread.sleep(Duration.ofMillis(20));
+			ghosts = true;
+			for (Room room : rooms) {
+				ghosts &= room.getBoard().getSnapshot().count() > room.getBoard().getPlayerCount();
+			}
+		}
+		assertTrue(ghosts);
+		for (Room room : rooms) {
+			room.stop();
+			assertEquals(0, room.getHumanCount());
+		}
+		for (SocketBoardBus bus : buses) {
+			bus.close();
+		}
+		executor.shutdownNow();
+	}
+
+	// Buses listening on free loopback ports.
+	private List<SocketBoardBus> loopbackBuses(int count, ExecutorService executor) throws IOException {
+		List<ServerSocket> servers = new ArrayList<>();
+		List<InetSocketAddress> peers = new ArrayList<>();
+		for (int r = 0; r < count; r++) {
+			ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+			servers.add(server);
+			peers.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort()));
+		}
+		List<SocketBoardBus> buses = new ArrayList<>();
+		for (int r = 0; r < count; r++) {
+			buses.add(new SocketBoardBus(r, servers.get(r), peers, executor));
+		}
+		return buses;
+	}
+}
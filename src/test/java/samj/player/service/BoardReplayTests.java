@@ -0,0 +1,72 @@
+package samj.player.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import samj.player.metrics.PlayerMetrics;
+import samj.player.util.PlayerRandom;
+
+class BoardReplayTests {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void lockedInputReplays() throws Exception {
+		replaySameAsRecorded(InputMode.LOCKED, InputJournal.CHUNK_BYTES);
+	}
+
+	@Test
+	void queuedInputOverSmallChunksReplays() throws Exception {
+		// Many chunks, so records are written either side of a remap.
+		replaySameAsRecorded(InputMode.QUEUED, 100);
+	}
+
+	private void replaySameAsRecorded(InputMode inputMode, int chunkBytes) throws Exception {
+		Path path = dir.resolve("board-" + inputMode + ".journal");
+		long seed = 1234;
+		InputJournal journal = InputJournal.create(path, new InputJournal.Header(seed, 1200, 800, BroadPhaseType.GRID, 0),
+				chunkBytes);
+		Board board = new Board(1200, 800, BroadPhaseType.GRID, 0, 600, 400, inputMode, new PlayerMetrics(),
+				new PlayerRandom(seed), journal);
+		for (int i = 0; i < 20; i++) {
+			board.addPlayer("d" + i, true);
+		}
+		// The browsers' keys come from a generator of their own.
+		PlayerRandom keys = new PlayerRandom(99);
+		List<Player> humans = new ArrayList<>();
+		for (int tick = 0; tick < 300; tick++) {
+			if (tick % 10 == 0 && humans.size() < 15) {
+				humans.add(board.addPlayer("h" + tick, false));
+			}
+			if (tick % 45 == 44) {
+				board.removePlayer(humans.remove(keys.nextBits(8) % humans.size()).getId());
+			}
+			for (Player p : humans) {
+				if (keys.nextBits(2) == 0) {
+					board.playerKey(p.getId(), keys.nextBool(), keys.nextBool(), keys.nextBool(), keys.nextBool());
+				}
+			}
+			board.animate();
+		}
+		board.closeJournal();
+		long recorded = BoardReplay.checksum(board.getSnapshot());
+
+		BoardReplay.Result result = BoardReplay.run(path, null);
+		assertEquals(300, result.ticks());
+		assertEquals(board.getPlayerCount(), result.players());
+		assertTrue(result.inputs() > 300);
+		assertEquals(recorded, result.checksum());
+		if (chunkBytes < 1000) {
+			assertTrue(Files.size(path) > 10 * chunkBytes);
+		}
+	}
+}
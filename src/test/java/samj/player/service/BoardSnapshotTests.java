@@ -0,0 +1,63 @@
+package samj.player.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import samj.player.metrics.PlayerMetrics;
+
+class BoardSnapshotTests {
+
+	@Test
+	void readsSeeTheLastTick() throws Exception {
+		Board board = new Board(600, 400, BroadPhaseType.GRID, 0, 600, 400, InputMode.LOCKED, new PlayerMetrics());
+		Player one = board.addPlayer("one", false);
+		assertNull(board.getFirstPlayerId());
+		PlayerInfo info = new PlayerInfo();
+		// Known by id before the tick, without a position.
+		assertTrue(board.getPlayerInfo(one.getId(), info));
+		assertEquals("one", info.getName());
+		assertNull(info.toDesc());
+
+		board.animate();
+		assertEquals(one.getId(), board.getFirstPlayerId());
+		int x = one.getX();
+		assertEquals(one.getId() + '\t' + x + '\t' + one.getY(), board.getPlayerDesc(one.getId()));
+
+		// Moved by the tick, not by the key.
+		board.playerKey(one.getId(), false, false, false, true);
+		assertEquals(x, board.getSnapshot().getX(0));
+		board.animate();
+		assertEquals(Math.min(x + board.motionPixels, board.maxX), board.getSnapshot().getX(0));
+	}
+
+	@Test
+	void rosterSharedUntilPlayersChange() throws Exception {
+		Board board = new Board(600, 400, BroadPhaseType.GRID, 0, 600, 400, InputMode.LOCKED, new PlayerMetrics());
+		board.addPlayer("one", false);
+		board.addPlayer("drone", true);
+		board.animate();
+		BoardSnapshot first = board.getSnapshot();
+		board.animate();
+		BoardSnapshot second = board.getSnapshot();
+		assertNotSame(first, second);
+		assertSame(first.getPlayer(0), second.getPlayer(0));
+		assertEquals(first.indexOf("none"), -1);
+
+		Player two = board.addPlayer("two", false);
+		board.animate();
+		BoardSnapshot third = board.getSnapshot();
+		assertEquals(3, third.count());
+		assertEquals(2, third.indexOf(two.getId()));
+		// The old snapshot is unchanged.
+		assertEquals(2, second.count());
+
+		StringBuilder sb = new StringBuilder();
+		board.iteratePlayer(sb, new PlayerInfo(), (b, i) -> b.append(i.getName()).append(';'));
+		assertEquals("one;drone;two;", sb.toString());
+	}
+}
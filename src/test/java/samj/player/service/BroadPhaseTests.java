@@ -0,0 +1,86 @@
+package samj.player.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class BroadPhaseTests {
+
+	private static final int RANGE = 33;
+
+	@Test
+	void candidatesMatchBruteForce() throws Exception {
+		int width = 2000;
+		int height = 1200;
+		int count = 1500;
+		Random random = new Random(1234);
+		int[] xs = new int[count];
+		int[] ys = new int[count];
+		for (int i = 0; i < count; i++) {
+			// A few positions just outside the board, as can happen while bouncing.
+			xs[i] = random.nextInt(width + 10) - 5;
+			ys[i] = random.nextInt(height + 10) - 5;
+		}
+		Set<Long> expected = inRangePairs(new BruteForceBroadPhase(), count, xs, ys);
+		for (BroadPhaseType type : BroadPhaseType.values()) {
+			BroadPhase broadPhase = type.create(width, height, RANGE);
+			assertEquals(expected, inRangePairs(broadPhase, count, xs, ys), type.name());
+			// Run again to check the state kept between ticks.
+			assertEquals(expected, inRangePairs(broadPhase, count, xs, ys), type.name());
+		}
+	}
+
+	// Joins at the end and leaves which move the last slot into the gap, as the PlayerStore does.
+	@Test
+	void sweepKeepsOrderOverJoinsAndLeaves() throws Exception {
+		int width = 1000;
+		int height = 600;
+		Random random = new Random(4321);
+		int[] xs = new int[1000];
+		int[] ys = new int[1000];
+		int count = 300;
+		for (int i = 0; i < count; i++) {
+			xs[i] = random.nextInt(width);
+			ys[i] = random.nextInt(height);
+		}
+		SweepBroadPhase sweep = new SweepBroadPhase();
+		for (int tick = 0; tick < 100; tick++) {
+			for (int n = random.nextInt(6); n > 0 && count > 1; n--) {
+				int slot = random.nextInt(count);
+				int last = --count;
+				xs[slot] = xs[last];
+				ys[slot] = ys[last];
+				sweep.removed(slot, last);
+			}
+			for (int n = random.nextInt(6); n > 0 && count < xs.length; n--) {
+				xs[count] = random.nextInt(width);
+				ys[count] = random.nextInt(height);
+				count++;
+			}
+			for (int i = 0; i < count; i++) {
+				xs[i] = Math.clamp(xs[i] + random.nextInt(11) - 5, 0, width);
+			}
+			assertEquals(inRangePairs(new BruteForceBroadPhase(), count, xs, ys), inRangePairs(sweep, count, xs, ys),
+					"tick " + tick);
+		}
+	}
+
+	private Set<Long> inRangePairs(BroadPhase broadPhase, int count, int[] xs, int[] ys) throws Exception {
+		Set<Long> pairs = new HashSet<>();
+		broadPhase.findPairs(count, xs, ys, RANGE, (i, j) -> {
+			if (i >= j) {
+				throw new IllegalStateException("Pair out of order " + i + ", " + j);
+			}
+			if (Math.abs(xs[i] - xs[j]) <= RANGE && Math.abs(ys[i] - ys[j]) <= RANGE) {
+				if (!pairs.add(((long) i << 32) | j)) {
+					throw new IllegalStateException("Duplicate pair " + i + ", " + j);
+				}
+			}
+		});
+		return pairs;
+	}
+}
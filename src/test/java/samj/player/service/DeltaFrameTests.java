@@ -0,0 +1,54 @@
+package samj.player.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import samj.player.metrics.PlayerMetrics;
+
+class DeltaFrameTests {
+
+	@Test
+	void stillPlayersOnlyInKeyframes() throws Exception {
+		PlayerMetrics metrics = new PlayerMetrics();
+		Board board = new Board(600, 400, BroadPhaseType.GRID, 0, 600, 400, InputMode.LOCKED, metrics);
+		board.addPlayer("one", false);
+		board.addPlayer("two", false);
+		// New players are sent once.
+		assertEquals(2, board.animate(null, false).getTilePositions(0, false).count);
+		assertEquals(0, board.animate(null, false).getTilePositions(0, false).count);
+		assertEquals(2, board.animate(null, true).getTilePositions(0, true).count);
+		assertEquals(2, metrics.getPositionsSuppressed().sum());
+
+		board.playerKey(board.getFirstPlayerId(), false, false, false, true);
+		assertEquals(1, board.animate(null, false).getTilePositions(0, false).count);
+	}
+
+	@Test
+	void handlesKeptAndReused() throws Exception {
+		Board board = new Board(600, 400, BroadPhaseType.GRID, 0, 600, 400, InputMode.LOCKED, new PlayerMetrics());
+		Player one = board.addPlayer("one", false);
+		Player two = board.addPlayer("two", false);
+		Player three = board.addPlayer("three", false);
+		board.animate(null, false);
+		assertEquals(0, one.getHandle());
+		assertEquals(2, three.getHandle());
+
+		// The last player takes the empty slot but keeps its handle, and isn't sent again.
+		board.removePlayer(one.getId());
+		assertEquals(0, three.getSlot());
+		assertEquals(2, three.getHandle());
+		assertEquals(0, board.animate(null, false).getTilePositions(0, false).count);
+
+		// The free handle goes to the next player, with its id.
+		Player four = board.addPlayer("four", false);
+		assertEquals(0, four.getHandle());
+		PositionList positions = board.animate(null, false).getTilePositions(0, false);
+		assertEquals(1, positions.count);
+		assertEquals(0, positions.handles[0]);
+		assertTrue(positions.withId[0]);
+		assertEquals(1, two.getHandle());
+		assertEquals(-1, one.getHandle());
+	}
+}
@@ -0,0 +1,95 @@
+package samj.player.service;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import samj.player.metrics.PlayerMetrics;
+import samj.player.util.PlayerRandom;
+
+class ParallelTickTests {
+
+	private static final int WIDTH = 2400;
+	private static final int HEIGHT = 800;
+
+	// After the bands' collisions, every pair in range across the band edge goes to the edge pass.
+	@Test
+	void bandEdgePairsChecked() throws Exception {
+		ForkJoinPool pool = new ForkJoinPool(2);
+		for (long seed = 1; seed <= 5; seed++) {
+			Board board = crowdedEdge(seed, 0);
+			PlayerStore store = board.getStore();
+			ParallelTick parallel = new ParallelTick(board, BroadPhaseType.GRID, 2);
+			int[] band = new int[store.count];
+			for (int tick = 0; tick < 50; tick++) {
+				for (int slot = 0; slot < store.count; slot++) {
+					band[slot] = (store.y[slot] < HEIGHT / 2) ? 0 : 1;
+				}
+				parallel.runBands(pool);
+				for (int a = 0; a < store.count; a++) {
+					for (int b = a + 1; b < store.count; b++) {
+						if (band[a] != band[b] && inRange(board, a, b)) {
+							assertTrue(parallel.isEdge(a) && parallel.isEdge(b),
+									"Seed " + seed + " tick " + tick + " pair " + a + ", " + b + " not checked");
+						}
+					}
+				}
+				parallel.checkEdges();
+			}
+		}
+		pool.shutdown();
+	}
+
+	// The parallel tick leaves no more players overlapping across the band edge than the serial tick.
+	@Test
+	void bandEdgeOverlapsMatchSerial() throws Exception {
+		ForkJoinPool pool = new ForkJoinPool(2);
+		long parallel = 0;
+		long serial = 0;
+		for (long seed = 1; seed <= 5; seed++) {
+			parallel += edgeOverlaps(crowdedEdge(seed, 2), pool);
+			serial += edgeOverlaps(crowdedEdge(seed, 0), null);
+		}
+		pool.shutdown();
+		assertTrue(parallel <= serial, "Overlaps parallel " + parallel + ", serial " + serial);
+	}
+
+	// Enough drones for the parallel tick, in a strip along the edge between the two bands.
+	private Board crowdedEdge(long seed, int bands) throws Exception {
+		Board board = new Board(WIDTH, HEIGHT, BroadPhaseType.GRID, bands, WIDTH, HEIGHT, InputMode.LOCKED,
+				new PlayerMetrics(), new PlayerRandom(seed), null);
+		PlayerStore store = board.getStore();
+		PlayerRandom rand = new PlayerRandom(seed);
+		for (int i = 0; i < 300; i++) {
+			Player p = board.addPlayer("d" + i, true);
+			store.setXY(p.getSlot(), Math.floorMod(rand.nextInt(), board.maxX), HEIGHT / 2 - 60 +
+					Math.floorMod(rand.nextInt(), 120));
+		}
+		return board;
+	}
+
+	// Overlapping pairs with a player each side of the band edge, summed over the ticks.
+	private long edgeOverlaps(Board board, ForkJoinPool pool) throws Exception {
+		PlayerStore store = board.getStore();
+		long overlaps = 0;
+		for (int tick = 0; tick < 50; tick++) {
+			board.animate(pool);
+			for (int a = 0; a < store.count; a++) {
+				for (int b = a + 1; b < store.count; b++) {
+					if ((store.y[a] < HEIGHT / 2) != (store.y[b] < HEIGHT / 2) && inRange(board, a, b)) {
+						overlaps++;
+					}
+				}
+			}
+		}
+		return overlaps;
+	}
+
+	private boolean inRange(Board board, int a, int b) {
+		PlayerStore store = board.getStore();
+		return Math.abs(store.x[a] - store.x[b]) <= board.checkPlayerSize &&
+				Math.abs(store.y[a] - store.y[b]) <= board.checkPlayerSize;
+	}
+}
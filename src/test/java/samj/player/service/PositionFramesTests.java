@@ -0,0 +1,64 @@
+package samj.player.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class PositionFramesTests {
+
+	@Test
+	void framesSplitAndDecode() {
+		PositionList list = new PositionList();
+		for (int i = 0; i < 100; i++) {
+			list.add("p" + i, i, i * 3, 400 - i, i % 10 == 0);
+		}
+		List<byte[]> frames = new PositionFrames().encode(77, list, 128);
+		int decoded = 0;
+		for (byte[] frame : frames) {
+			assertEquals(true, frame.length <= 128);
+			ByteBuffer buffer = ByteBuffer.wrap(frame);
+			assertEquals(PositionFrames.FRAME_POSITIONS, buffer.get());
+			assertEquals(77, buffer.getInt());
+			while (buffer.hasRemaining()) {
+				int handle = buffer.getShort() & 0xffff;
+				int i = handle & PositionFrames.MAX_HANDLE;
+				assertEquals(i, decoded);
+				assertEquals(i * 3, buffer.getShort());
+				assertEquals(400 - i, buffer.getShort());
+				if ((handle & PositionFrames.ID_FLAG) != 0) {
+					byte[] id = new byte[buffer.get()];
+					buffer.get(id);
+					assertEquals("p" + i, new String(id, StandardCharsets.US_ASCII));
+					assertEquals(0, i % 10);
+				}
+				decoded++;
+			}
+		}
+		assertEquals(100, decoded);
+	}
+
+	// No binary frames for a handle over 15 bits, and the next tick's frames have all the ids.
+	@Test
+	void bigHandleFallsBack() {
+		PositionFrames encoder = new PositionFrames();
+		PositionList list = new PositionList();
+		list.add("p0", 0, 10, 20, false);
+		list.add("big", PositionFrames.MAX_HANDLE + 1, 30, 40, true);
+		assertNull(encoder.encode(5, list, 1024));
+		list.clear();
+		list.add("p0", 0, 10, 20, false);
+		ByteBuffer buffer = ByteBuffer.wrap(encoder.encode(6, list, 1024).get(0));
+		buffer.position(5);
+		assertEquals(PositionFrames.ID_FLAG, buffer.getShort() & 0xffff);
+		list.clear();
+		list.add("p0", 0, 10, 20, false);
+		buffer = ByteBuffer.wrap(encoder.encode(7, list, 1024).get(0));
+		buffer.position(5);
+		assertEquals(0, buffer.getShort() & 0xffff);
+	}
+}
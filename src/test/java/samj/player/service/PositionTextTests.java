@@ -0,0 +1,63 @@
+package samj.player.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class PositionTextTests {
+
+	@Test
+	void messagesSplitAndParse() {
+		PositionList list = new PositionList();
+		for (int i = 0; i < 100; i++) {
+			list.add("p" + i, i, i * 37 - 50, 400 - i, false);
+		}
+		List<String> messages = new PositionText().encode(list, 128);
+		assertTrue(messages.size() > 1);
+		int decoded = 0;
+		for (String message : messages) {
+			assertTrue(message.startsWith(PositionText.PREFIX));
+			assertTrue(message.length() - PositionText.PREFIX.length() <= 128);
+			for (String line : message.substring(PositionText.PREFIX.length()).split("\n")) {
+				int i = decoded++;
+				assertEquals("p" + i + "\t" + (i * 37 - 50) + "\t" + (400 - i), line);
+			}
+		}
+		assertEquals(100, decoded);
+	}
+
+	// In steady state the encoders only allocate the messages and frames they return.
+	@Test
+	void encodersOnlyAllocateFrames() {
+		PositionList list = new PositionList();
+		for (int i = 0; i < 5000; i++) {
+			list.add("d" + i, i, i % 2000, i % 1300, i % 4 == 0);
+		}
+		PositionText text = new PositionText();
+		PositionFrames frames = new PositionFrames();
+		long payload = 0;
+		for (int run = 0; run < 20; run++) {
+			text.encode(list, 8192);
+			frames.encode(run, list, 8192);
+		}
+		long before = allocatedBytes();
+		for (String message : text.encode(list, 8192)) {
+			payload += message.length();
+		}
+		for (byte[] frame : frames.encode(20, list, 8192)) {
+			payload += frame.length;
+		}
+		long allocated = allocatedBytes() - before;
+		// The strings are Latin-1, so a byte a character, and each message or frame has a header.
+		assertTrue(allocated < payload + 64 * 1024, "Allocated " + allocated + " bytes for " + payload + " bytes of frames");
+	}
+
+	private static long allocatedBytes() {
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		return bean.getThreadAllocatedBytes(Thread.currentThread().threadId());
+	}
+}
@@ -0,0 +1,43 @@
+package samj.player.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+import samj.player.metrics.PlayerMetrics;
+
+class QueuedInputTests {
+
+	@Test
+	void inputAppliedByTheTick() throws Exception {
+		PlayerMetrics metrics = new PlayerMetrics();
+		Board board = new Board(600, 400, BroadPhaseType.GRID, 0, 600, 400, InputMode.QUEUED, metrics);
+		Player one = board.addPlayer("one", false);
+		Player two = board.addPlayer("two", false);
+		assertThrows(IllegalArgumentException.class, () -> board.addPlayer("one", false));
+		assertEquals(-1, one.getSlot());
+		assertEquals(2, board.getPlayerCount());
+		// Removed before it was placed.
+		board.removePlayer(two.getId());
+		board.animate();
+		assertEquals(0, one.getSlot());
+		assertEquals(1, board.getStore().count);
+
+		// Only the last keys count.
+		board.playerKey(one.getId(), false, false, true, false);
+		board.playerKey(one.getId(), true, false, false, false);
+		board.playerKey(one.getId(), false, false, false, true);
+		assertEquals(2, metrics.getKeysCoalesced().sum());
+		int x = one.getX();
+		int y = one.getY();
+		board.animate();
+		assertEquals(y, one.getY());
+		assertEquals(Math.min(x + board.motionPixels, board.maxX), one.getX());
+
+		board.removePlayer(one.getId());
+		assertEquals(0, board.getPlayerCount());
+		board.drainInput();
+		assertEquals(0, board.getStore().count);
+	}
+}
@@ -0,0 +1,92 @@
+package samj.player.service;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import samj.player.config.PlayerProperties;
+import samj.player.metrics.PlayerMetrics;
+import samj.player.util.JacksonMapper;
+import samj.player.ws.PlayerWebSocketHandler;
+import samj.player.ws.SendPolicy;
+
+/*
+ * A room's tick with the position messages it encodes, without any browsers to send them to.
+ * The timer thread isn't started, the benchmark calls timerAction() itself.
+ *
+ * Run with: mvn test -Pjmh -Djmh.args=RoomBenchmark
+ * or with "RoomBenchmark -prof gc" for the bytes allocated per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RoomBenchmark {
+
+	@Param({"100", "1000", "10000"})
+	int players;
+
+	private ExecutorService executor;
+	private Room room;
+	private PositionList keyframe;
+	private final PositionText positionText = new PositionText();
+	private final PositionFrames positionFrames = new PositionFrames();
+	private long tick = 0;
+
+	@Setup
+	public void setup() throws InterruptedException {
+		PlayerProperties properties = new PlayerProperties();
+		properties.setBoardWidth(Math.max(Board.DEFAULT_WIDTH, (int) Math.sqrt(players * 12000.0 * 1.5)));
+		properties.setBoardHeight(Math.max(Board.DEFAULT_HEIGHT, properties.getBoardWidth() * 2 / 3));
+		// The whole board in view, so every tick is encoded once for all the browsers.
+		properties.setViewWidth(properties.getBoardWidth());
+		properties.setViewHeight(properties.getBoardHeight());
+		executor = Executors.newVirtualThreadPerTaskExecutor();
+		PlayerMetrics metrics = new PlayerMetrics();
+		PlayerService playerService = new PlayerService(executor, properties, metrics);
+		PlayerWebSocketHandler handler = new PlayerWebSocketHandler(executor, new JacksonMapper(), playerService, metrics,
+				SendPolicy.DEFAULT, properties.toDeflatePolicy());
+		room = new Room("1", executor, handler, properties, 0, null, metrics);
+		for (int i = 0; i < players; i++) {
+			room.getBoard().addPlayer("d" + i, true);
+		}
+		keyframe = room.getBoard().animate(null, true).getTilePositions(0, true);
+	}
+
+	@TearDown
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	// Move, collide and the text messages, with a keyframe every keyframeTicks.
+	@Benchmark
+	public void timerAction() throws InterruptedException {
+		room.timerAction(tick++);
+	}
+
+	@Benchmark
+	public List<byte[]> binaryKeyframe() {
+		return positionFrames.encode(tick, keyframe, 8192);
+	}
+
+	@Benchmark
+	public List<String> textKeyframe() {
+		return positionText.encode(keyframe, 8192);
+	}
+}
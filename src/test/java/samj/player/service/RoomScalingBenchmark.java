@@ -0,0 +1,76 @@
+package samj.player.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * One tick of every room, each room on its own virtual thread as the Room timer threads are, so
+ * the time per operation shows how the rooms spread over the cores.
+ *
+ * Run with: mvn test -Pjmh -Djmh.args=RoomScalingBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RoomScalingBenchmark {
+
+	@Param({"1", "2", "4", "8", "16"})
+	int rooms;
+
+	@Param({"1000"})
+	int entities;
+
+	private final List<Board> boards = new ArrayList<>();
+	private final List<Future<?>> ticks = new ArrayList<>();
+	private ExecutorService executor;
+
+	@Setup
+	public void setup() throws InterruptedException {
+		int width = (int) Math.sqrt(entities * 12000.0 * 1.5);
+		int height = width * 2 / 3;
+		for (int r = 0; r < rooms; r++) {
+			Board board = new Board(width, height, BroadPhaseType.GRID);
+			for (int i = 0; i < entities; i++) {
+				board.addPlayer("d" + i, true);
+			}
+			boards.add(board);
+		}
+		executor = Executors.newVirtualThreadPerTaskExecutor();
+	}
+
+	@TearDown
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Benchmark
+	public void tickAllRooms() throws Exception {
+		ticks.clear();
+		for (Board board : boards) {
+			ticks.add(executor.submit(() -> board.animate()));
+		}
+		for (Future<?> tick : ticks) {
+			tick.get();
+		}
+	}
+}
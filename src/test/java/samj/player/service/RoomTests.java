@@ -0,0 +1,366 @@
+package samj.player.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+
+import samj.player.MockWebSocketSession;
+import samj.player.config.PlayerProperties;
+import samj.player.metrics.PlayerMetrics;
+import samj.player.util.JacksonMapper;
+import samj.player.ws.PlayerWebSocketHandler;
+import samj.player.ws.PlayerWebSocketSession;
+import samj.player.ws.PreparedFrame;
+import samj.player.ws.SendPolicy;
+
+class RoomTests {
+
+	@Test
+	void fullRoomSplits() throws Exception {
+		PlayerProperties properties = new PlayerProperties();
+		properties.setRoomSplitPlayers(4);
+		properties.setMaxRooms(4);
+		ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+		PlayerMetrics metrics = new PlayerMetrics();
+		PlayerService playerService = new PlayerService(executor, properties, metrics);
+		PlayerWebSocketHandler handler = new PlayerWebSocketHandler(executor, new JacksonMapper(), playerService, metrics,
+				SendPolicy.DEFAULT, properties.toDeflatePolicy());
+		playerService.setCustomWebSocketHandler(handler);
+
+		List<MockWebSocketSession> sessions = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			MockWebSocketSession session = new MockWebSocketSession("s" + i, "name" + i);
+			sessions.add(session);
+			handler.afterConnectionEstablished(session);
+		}
+		assertEquals(2, playerService.getRoomCount());
+		assertEquals(1, metrics.getRoomSplits().sum());
+		Thread.sleep(Duration.ofMillis(200));
+		// Half of the room was told to reconnect, and closed.
+		int moved = 0;
+		for (MockWebSocketSession session : sessions) {
+			if (session.getMessages().contains("$room:2")) {
+				assertFalse(session.isOpen());
+				moved++;
+			}
+		}
+		assertEquals(2, moved);
+
+		// The browsers come back to the new room, with the same names.
+		List<MockWebSocketSession> rejoined = new ArrayList<>();
+		for (int i = 0; i < moved; i++) {
+			MockWebSocketSession session = new MockWebSocketSession("r" + i, Map.of("playerName", "name" + i,
+					"roomId", "2"));
+			rejoined.add(session);
+			handler.afterConnectionEstablished(session);
+		}
+		Thread.sleep(Duration.ofMillis(200));
+		String init = null;
+		for (MockWebSocketSession session : rejoined) {
+			init = session.getMessages().stream().filter(m -> m.startsWith("$init:")).findFirst().orElse("");
+			assertTrue(init.endsWith("\troom:2"));
+		}
+		assertEquals(2L * Room.DRONE_COUNT, metrics.snapshot().get("drones"));
+		// The players are only found in their own room.
+		String playerId = init.split("\tid:")[1].split("\t")[0];
+		assertTrue(playerService.getPlayerDesc("2", playerId).startsWith(playerId + "\t"));
+		assertEquals(null, playerService.getPlayerDesc("1", playerId));
+		assertFalse(playerService.getPlayerInfo("1", playerId, new PlayerInfo()));
+		String droneId = playerService.getFirstPlayerId();
+		assertTrue(playerService.getPlayerDesc(playerService.getFirstRoomId(), droneId) != null);
+		assertEquals(null, playerService.getPlayerDesc("2", droneId));
+		for (MockWebSocketSession session : sessions) {
+			handler.afterConnectionClosed(session, CloseStatus.NORMAL);
+		}
+		Thread.sleep(Duration.ofMillis(100));
+		assertEquals(2, playerService.getRoomCount());
+		// The new room closes when it is empty.
+		for (MockWebSocketSession session : rejoined) {
+			handler.afterConnectionClosed(session, CloseStatus.NORMAL);
+		}
+		Thread.sleep(Duration.ofMillis(100));
+		assertEquals(1, playerService.getRoomCount());
+		executor.shutdownNow();
+	}
+
+	@Test
+	void snapshotBuiltOncePerTick() throws Exception {
+		PlayerProperties properties = new PlayerProperties();
+		ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+		PlayerMetrics metrics = new PlayerMetrics();
+		PlayerService playerService = new PlayerService(executor, properties, metrics);
+		PlayerWebSocketHandler handler = new PlayerWebSocketHandler(executor, new JacksonMapper(), playerService, metrics,
+				SendPolicy.DEFAULT, properties.toDeflatePolicy());
+		Room room = new Room("1", executor, handler, properties, 0, null, metrics);
+		assertTrue(room.getSnapshotFrames(8192).isEmpty());
+		room.addDrones();
+		assertEquals(-1, room.getSnapshotFrames(8192).get(0).getTick());
+		Player player = room.getBoard().addPlayer("name0", false);
+
+		room.timerAction(7);
+		List<PreparedFrame> frames = room.getSnapshotFrames(8192);
+		assertSame(frames, room.getSnapshotFrames(8192));
+		assertEquals(2, metrics.getSnapshotsBuilt().sum());
+		assertEquals(1, frames.size());
+		assertEquals(7, frames.get(0).getTick());
+		String[] lines = frames.get(0).getText().split("\n");
+		// The roster version with the join, then the players.
+		assertEquals("$snap:1", lines[0]);
+		assertEquals(Room.DRONE_COUNT + 2, lines.length);
+		String line = Arrays.stream(lines).filter(l -> l.contains("\tname0")).findFirst().orElseThrow();
+		assertTrue(line.startsWith(player.getId() + "\t"));
+		assertTrue(line.endsWith("\t" + player.getHandle() + "\tname0"));
+
+		room.timerAction(8);
+		assertEquals(8, room.getSnapshotFrames(8192).get(0).getTick());
+		assertEquals(3, metrics.getSnapshotsBuilt().sum());
+		executor.shutdownNow();
+	}
+
+	@Test
+	void rosterSentOncePerTick() throws Exception {
+		PlayerProperties properties = new PlayerProperties();
+		// All the joins and the leave before the first tick.
+		properties.setTickMillis(1000);
+		ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+		PlayerMetrics metrics = new PlayerMetrics();
+		PlayerService playerService = new PlayerService(executor, properties, metrics);
+		PlayerWebSocketHandler handler = new PlayerWebSocketHandler(executor, new JacksonMapper(), playerService, metrics,
+				SendPolicy.DEFAULT, properties.toDeflatePolicy());
+		playerService.setCustomWebSocketHandler(handler);
+
+		MockWebSocketSession first = new MockWebSocketSession("s0", "name0");
+		handler.afterConnectionEstablished(first);
+		List<MockWebSocketSession> sessions = new ArrayList<>();
+		for (int i = 1; i <= 20; i++) {
+			MockWebSocketSession session = new MockWebSocketSession("s" + i, "name" + i);
+			sessions.add(session);
+			handler.afterConnectionEstablished(session);
+		}
+		handler.afterConnectionClosed(sessions.get(0), CloseStatus.NORMAL);
+		Thread.sleep(Duration.ofMillis(1300));
+
+		// The joins and the leave come in one versioned message, not one for each.
+		List<String> rosters = first.getMessages().stream().filter(m -> m.startsWith("$r:")).toList();
+		assertEquals(1, rosters.size(), rosters.toString());
+		String[] lines = rosters.get(0).substring(3).split("\n");
+		long version = Long.parseLong(lines[0]);
+		assertEquals(1, version);
+		List<String> events = Arrays.asList(lines).subList(1, lines.length);
+		assertEquals(21, events.stream().filter(e -> e.startsWith("+")).count());
+		assertTrue(events.stream().anyMatch(e -> e.endsWith(":name20")));
+		assertEquals(1, events.stream().filter(e -> e.startsWith("-")).count());
+
+		// A browser which missed a version gets the snapshot again, with the latest version.
+		handler.handleMessage(first, new TextMessage("$resync:"));
+		Thread.sleep(Duration.ofMillis(50));
+		List<String> snapshots = first.getMessages().stream().filter(m -> m.startsWith("$snap:")).toList();
+		assertEquals(1, snapshots.size());
+		assertEquals(version, Long.parseLong(snapshots.get(0).substring(6).split("\n")[0]));
+		assertEquals(1, metrics.getRosterResyncs().sum());
+		for (MockWebSocketSession session : sessions) {
+			handler.afterConnectionClosed(session, CloseStatus.NORMAL);
+		}
+		handler.afterConnectionClosed(first, CloseStatus.NORMAL);
+		executor.shutdownNow();
+	}
+
+	// Joins and leaves during the ticks, each snapshot has the players of the roster versions up to it.
+	@Test
+	void rosterMatchesSnapshot() throws Exception {
+		for (InputMode inputMode : InputMode.values()) {
+			PlayerProperties properties = new PlayerProperties();
+			properties.setInputMode(inputMode);
+			ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+			PlayerMetrics metrics = new PlayerMetrics();
+			PlayerService playerService = new PlayerService(executor, properties, metrics);
+			List<String> rosters = new ArrayList<>();
+			PlayerWebSocketHandler handler = new PlayerWebSocketHandler(executor, new JacksonMapper(), playerService,
+					metrics, SendPolicy.DEFAULT, properties.toDeflatePolicy()) {
+				@Override
+				public void sendRoom(String roomId, List<PreparedFrame> frames) {
+					for (PreparedFrame frame : frames) {
+						rosters.add(frame.getText());
+					}
+				}
+			};
+			Room room = new Room("1", executor, handler, properties, 0, null, metrics);
+			room.addDrones();
+			Board board = room.getBoard();
+			AtomicBoolean running = new AtomicBoolean(true);
+			Future<?> churn = executor.submit(() -> {
+				List<Player> players = new ArrayList<>();
+				for (int i = 0; running.get(); i++) {
+					players.add(board.addPlayer("name" + i, false));
+					if (players.size() > 20) {
+						board.removePlayer(players.remove(i % players.size()).getId());
+					}
+				}
+				return null;
+			});
+			Set<String> ids = new HashSet<>();
+			long version = 0;
+			for (int tick = 0; tick < 200; tick++) {
+				room.timerAction(tick);
+				for (String roster : rosters) {
+					String[] lines = roster.substring(3).split("\n");
+					assertEquals(++version, Long.parseLong(lines[0]));
+					for (String event : Arrays.asList(lines).subList(1, lines.length)) {
+						if (event.startsWith("+")) {
+							assertTrue(ids.add(event.substring(1, event.indexOf(':'))), event);
+						} else {
+							assertTrue(ids.remove(event.substring(1)), event);
+						}
+					}
+				}
+				rosters.clear();
+				Set<String> snapshotIds = new HashSet<>();
+				for (PreparedFrame frame : room.getSnapshotFrames(handler.getMaxDataSize())) {
+					String[] lines = frame.getText().substring(6).split("\n");
+					assertEquals(version, Long.parseLong(lines[0]), inputMode.name());
+					for (String line : Arrays.asList(lines).subList(1, lines.length)) {
+						String[] fields = line.split("\t");
+						if (fields.length == 5) {
+							snapshotIds.add(fields[0]);
+						}
+					}
+				}
+				assertEquals(ids, snapshotIds, inputMode.name() + " tick " + tick);
+			}
+			running.set(false);
+			churn.get();
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	void rejectedJoinIgnoresInput() throws Exception {
+		PlayerProperties properties = new PlayerProperties();
+		ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+		PlayerMetrics metrics = new PlayerMetrics();
+		PlayerService playerService = new PlayerService(executor, properties, metrics);
+		PlayerWebSocketHandler handler = new PlayerWebSocketHandler(executor, new JacksonMapper(), playerService, metrics,
+				SendPolicy.DEFAULT, properties.toDeflatePolicy());
+		playerService.setCustomWebSocketHandler(handler);
+
+		MockWebSocketSession first = new MockWebSocketSession("s0", "name0");
+		handler.afterConnectionEstablished(first);
+		// The name is in use, so the session has no player until it is closed.
+		MockWebSocketSession rejected = new MockWebSocketSession("s1", "name0");
+		handler.afterConnectionEstablished(rejected);
+		handler.handleMessage(rejected, new TextMessage("$key:UL"));
+		handler.handleMessage(rejected, new TextMessage("$view:0\t0\t600\t400"));
+		handler.handleMessage(rejected, new BinaryMessage(new byte[] {(byte) 0xf9}));
+		Thread.sleep(Duration.ofMillis(50));
+		assertTrue(rejected.getMessages().stream().anyMatch(m -> m.startsWith("$err:")));
+		handler.afterConnectionClosed(rejected, CloseStatus.NORMAL);
+		handler.afterConnectionClosed(first, CloseStatus.NORMAL);
+		executor.shutdownNow();
+	}
+
+	// A restarted timer doesn't tick while the stopped timer's tick is still running.
+	@Test
+	void restartWaitsForTick() throws Exception {
+		PlayerProperties properties = new PlayerProperties();
+		properties.setTickMillis(1);
+		ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+		PlayerMetrics metrics = new PlayerMetrics();
+		PlayerService playerService = new PlayerService(executor, properties, metrics);
+		AtomicInteger ticking = new AtomicInteger();
+		AtomicBoolean overlapped = new AtomicBoolean();
+		PlayerWebSocketHandler handler = new PlayerWebSocketHandler(executor, new JacksonMapper(), playerService, metrics,
+				SendPolicy.DEFAULT, properties.toDeflatePolicy()) {
+			@Override
+			public void sendFrames(String roomId, List<PreparedFrame> texts, List<PreparedFrame> frames) {
+				if (ticking.incrementAndGet() > 1) {
+					overlapped.set(true);
+				}
+				// A slow fanout, which the cancel's interrupt doesn't stop.
+				long end = System.nanoTime() + 2_000_000;
+				while (System.nanoTime() < end) {
+					Thread.onSpinWait();
+				}
+				ticking.decrementAndGet();
+			}
+		};
+		Room room = new Room("1", executor, handler, properties, 0, null, metrics);
+		room.addDrones();
+		PlayerWebSocketSession session = new PlayerWebSocketSession("one", false, new MockWebSocketSession("s0", "one"),
+				executor, metrics, SendPolicy.DEFAULT);
+		for (int i = 0; i < 100; i++) {
+			String id = room.addPlayer(session);
+			Thread.sleep(Duration.ofMillis(3));
+			room.removePlayer(id);
+		}
+		room.stop();
+		assertFalse(overlapped.get());
+		executor.shutdownNow();
+	}
+
+	/*
+	 * In steady state a tick without the area of interest allocates the positions of the board
+	 * snapshot, two ints a player, and the position messages, not a String for each player.
+	 */
+	@Test
+	void tickGarbageIsSnapshotAndFrames() throws Exception {
+		PlayerProperties properties = new PlayerProperties();
+		properties.setKeyframeTicks(1);
+		ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+		PlayerMetrics metrics = new PlayerMetrics();
+		PlayerService playerService = new PlayerService(executor, properties, metrics);
+		AtomicLong payload = new AtomicLong();
+		PlayerWebSocketHandler handler = new PlayerWebSocketHandler(executor, new JacksonMapper(), playerService, metrics,
+				SendPolicy.DEFAULT, properties.toDeflatePolicy()) {
+			@Override
+			public void sendFrames(String roomId, List<PreparedFrame> texts, List<PreparedFrame> frames) {
+				for (PreparedFrame frame : texts) {
+					payload.addAndGet(frame.getSize());
+				}
+			}
+		};
+		Room room = new Room("1", executor, handler, properties, 0, null, metrics);
+		room.addDrones();
+		int count = 2000;
+		for (int i = 0; i < count; i++) {
+			room.getBoard().addPlayer("d" + i, true);
+		}
+		for (int tick = 0; tick < 50; tick++) {
+			room.timerAction(tick);
+		}
+		payload.set(0);
+		long before = allocatedBytes();
+		room.timerAction(50);
+		long allocated = allocatedBytes() - before;
+		// The messages are Latin-1 Strings, a byte a character, and each has its frame and headers.
+		long snapshot = 2L * Integer.BYTES * (count + Room.DRONE_COUNT);
+		assertTrue(allocated < snapshot + payload.get() + 8 * 1024,
+				"Allocated " + allocated + " bytes for " + payload.get() + " bytes of messages");
+		executor.shutdownNow();
+	}
+
+	private static long allocatedBytes() {
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		return bean.getThreadAllocatedBytes(Thread.currentThread().threadId());
+	}
+}
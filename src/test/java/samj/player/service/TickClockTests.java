@@ -0,0 +1,43 @@
+package samj.player.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+class TickClockTests {
+
+	private static final long PERIOD = 20;
+
+	@Test
+	void deadlinesDontDrift() {
+		TickClock clock = new TickClock(PERIOD, TickPolicy.SKIP, 0);
+		clock.start(1000);
+		assertEquals(20, clock.delay(1000));
+		// Each tick takes 5, the next one is still due on the period boundary.
+		assertEquals(-15, clock.finish(1025));
+		assertEquals(1, clock.getTick());
+		assertEquals(15, clock.delay(1025));
+	}
+
+	@Test
+	void skipAndCatchUp() {
+		TickClock skip = new TickClock(PERIOD, TickPolicy.SKIP, 3);
+		skip.start(0);
+		// Tick 0 due at 20 finishes at 95: ticks 1, 2 and 3 were due at 40, 60 and 80.
+		assertEquals(55, skip.finish(95));
+		assertEquals(2, skip.getSkipped());
+		assertEquals(3, skip.getTick());
+		assertEquals(-15, skip.delay(95));
+
+		TickClock catchUp = new TickClock(PERIOD, TickPolicy.CATCH_UP, 1);
+		catchUp.start(0);
+		catchUp.finish(95);
+		assertEquals(1, catchUp.getSkipped());
+		assertEquals(2, catchUp.getTick());
+
+		// Restarting keeps the tick numbers going up.
+		catchUp.start(500);
+		assertEquals(2, catchUp.getTick());
+		assertEquals(20, catchUp.delay(500));
+	}
+}
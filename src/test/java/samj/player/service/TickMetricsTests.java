@@ -0,0 +1,70 @@
+package samj.player.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import samj.player.metrics.PlayerMetrics;
+
+class TickMetricsTests {
+
+	@Test
+	void serialTickPhases() throws Exception {
+		PlayerMetrics metrics = new PlayerMetrics();
+		// Bound after the meters are made, as Spring Boot does.
+		MeterRegistry registry = new SimpleMeterRegistry();
+		metrics.bindTo(registry);
+		Board board = new Board(600, 400, BroadPhaseType.GRID, 0, 600, 400, InputMode.LOCKED, metrics);
+		board.addPlayer("one", false);
+		board.addPlayer("two", false);
+		board.animate();
+		board.animate();
+
+		assertEquals(2, registry.get("player.tick").tag("phase", "move").timer().count());
+		assertEquals(2, registry.get("player.tick").tag("phase", "collide").timer().count());
+		assertEquals(2, registry.get("player.tick").tag("phase", "update").timer().count());
+		// The joins and the ticks.
+		assertTrue(registry.get("player.board.lock.wait").timer().count() >= 4);
+	}
+
+	@Test
+	void parallelTickPhases() throws Exception {
+		PlayerMetrics metrics = new PlayerMetrics();
+		MeterRegistry registry = new SimpleMeterRegistry();
+		metrics.bindTo(registry);
+		Board board = new Board(600, 400, BroadPhaseType.GRID, 3, 600, 400, InputMode.LOCKED, metrics);
+		for (int i = 0; i < board.parallelMinPlayers; i++) {
+			board.addPlayer("p" + i, true);
+		}
+		ForkJoinPool pool = new ForkJoinPool(3);
+		try {
+			board.animate(pool, false);
+		} finally {
+			pool.shutdown();
+		}
+
+		// One sample for the tick, not one per band.
+		assertEquals(1, registry.get("player.tick").tag("phase", "move").timer().count());
+		assertEquals(1, registry.get("player.tick").tag("phase", "collide").timer().count());
+	}
+
+	@Test
+	void gaugesAndCounters() {
+		PlayerMetrics metrics = new PlayerMetrics();
+		MeterRegistry registry = new SimpleMeterRegistry();
+		metrics.bindTo(registry);
+		metrics.setSessions(() -> 3);
+		metrics.setPlayers(() -> 7);
+		metrics.getBytesSent().add(100);
+
+		assertEquals(3, registry.get("player.sessions").gauge().value());
+		assertEquals(7, registry.get("player.players").gauge().value());
+		assertEquals(100, registry.get("player.bytes.sent").functionCounter().count());
+		assertEquals(7, metrics.snapshot().get("players"));
+	}
+}
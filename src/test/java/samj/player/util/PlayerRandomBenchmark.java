@@ -0,0 +1,47 @@
+package samj.player.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Run with: mvn test -Pjmh -Djmh.args=PlayerRandomBenchmark
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PlayerRandomBenchmark {
+
+	private final PlayerRandom rand = new PlayerRandom(1);
+	private final byte[] bytes = new byte[64];
+
+	@Benchmark
+	public int nextInt() {
+		return rand.nextInt();
+	}
+
+	@Benchmark
+	public int nextShort() {
+		return rand.nextShort();
+	}
+
+	@Benchmark
+	public boolean nextBool() {
+		return rand.nextBool();
+	}
+
+	@Benchmark
+	public byte[] nextBytes64() {
+		rand.nextBytes(bytes);
+		return bytes;
+	}
+}
@@ -0,0 +1,61 @@
+package samj.player.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class PlayerRandomTests {
+
+	@Test
+	void defaultSequenceUnchanged() {
+		PlayerRandom rand = new PlayerRandom();
+		assertEquals(-2053697943, rand.nextInt());
+		assertEquals(937473132, rand.nextInt());
+		assertEquals(1224565456, rand.nextInt());
+		assertEquals(-1631491585, rand.nextInt());
+		assertEquals(-96, rand.nextByte());
+		assertEquals(26979, rand.nextShort());
+		assertTrue(rand.nextBool());
+		assertTrue(rand.nextBool());
+	}
+
+	@Test
+	void seededAndSplit() {
+		PlayerRandom one = new PlayerRandom(42);
+		PlayerRandom two = new PlayerRandom(42);
+		for (int i = 0; i < 100; i++) {
+			assertEquals(one.nextInt(), two.nextInt());
+		}
+		assertNotEquals(new PlayerRandom(43).nextInt(), new PlayerRandom(42).nextInt());
+
+		// A split child has its own sequence, the same for the same parent.
+		PlayerRandom child = one.split();
+		assertEquals(child.nextInt(), two.split().nextInt());
+		assertNotEquals(one.nextInt(), child.nextInt());
+		assertNotEquals(PlayerRandom.create().nextInt(), PlayerRandom.create().nextInt());
+	}
+
+	@Test
+	void bitsAndBytes() {
+		PlayerRandom rand = new PlayerRandom(7);
+		for (int i = 0; i < 1000; i++) {
+			int bits = rand.nextBits(5);
+			assertTrue(bits >= 0 && bits < 32);
+		}
+		assertThrows(IllegalArgumentException.class, () -> rand.nextBits(0));
+		assertThrows(IllegalArgumentException.class, () -> rand.nextBits(33));
+
+		// Big-endian bytes of the ints.
+		byte[] bytes = new byte[6];
+		new PlayerRandom(9).nextBytes(bytes);
+		PlayerRandom check = new PlayerRandom(9);
+		int first = check.nextInt();
+		int second = check.nextInt();
+		assertArrayEquals(new byte[] {(byte) (first >> 24), (byte) (first >> 16), (byte) (first >> 8), (byte) first,
+				(byte) (second >> 24), (byte) (second >> 16)}, bytes);
+	}
+}
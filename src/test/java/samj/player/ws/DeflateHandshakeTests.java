@@ -0,0 +1,72 @@
+package samj.player.ws;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.context.annotation.Import;
+
+import samj.player.config.WebSocketConfig;
+
+// The extension is only agreed for the browsers the adaptive policy accepts.  The long tick keeps
+// the game's own frames out of the samples.
+@SpringBootTest(classes = DeflateHandshakeTests.App.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+		properties = {"player.deflate=ADAPTIVE", "player.tick-millis=60000"})
+class DeflateHandshakeTests {
+
+	@SpringBootConfiguration
+	@EnableAutoConfiguration
+	@Import(WebSocketConfig.class)
+	static class App {
+	}
+
+	@LocalServerPort
+	int port;
+
+	@Autowired
+	DeflatePolicy deflatePolicy;
+
+	@Test
+	void deflateAgreedByPolicy() throws Exception {
+		assertFalse(handshake("a", "txt").contains(DeflatePolicy.EXTENSION));
+
+		StringBuilder sb = new StringBuilder("$p:");
+		for (int i = 0; i < 200; i++) {
+			sb.append('\n').append("d").append(i).append('\t').append(i * 7 % 600).append('\t').append(i * 3 % 400);
+		}
+		deflatePolicy.sample(PreparedFrame.positions(1, true, sb.toString()), sb.length());
+		assertTrue(handshake("b", "txt").contains(DeflatePolicy.EXTENSION));
+		// Nothing known about the binary frames yet.
+		assertFalse(handshake("c", "bin").contains(DeflatePolicy.EXTENSION));
+	}
+
+	// The response headers of a handshake which offers permessage-deflate.
+	private String handshake(String name, String proto) throws IOException {
+		try (Socket socket = new Socket("localhost", port)) {
+			String request = "GET /ws/notifications?name=" + name + "&proto=" + proto + " HTTP/1.1\r\n" +
+					"Host: localhost\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n" +
+					"Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\nSec-WebSocket-Version: 13\r\n" +
+					"Sec-WebSocket-Extensions: permessage-deflate; client_max_window_bits\r\n\r\n";
+			socket.getOutputStream().write(request.getBytes(StandardCharsets.ISO_8859_1));
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+			StringBuilder headers = new StringBuilder();
+			String line;
+			while ((line = in.readLine()) != null && !line.isEmpty()) {
+				headers.append(line).append('\n');
+			}
+			assertTrue(headers.toString().startsWith("HTTP/1.1 101"), headers.toString());
+			return headers.toString();
+		}
+	}
+}
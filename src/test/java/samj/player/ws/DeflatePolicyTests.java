@@ -0,0 +1,73 @@
+package samj.player.ws;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class DeflatePolicyTests {
+
+	private static final long BUDGET_NANOS = 1_000_000_000L;
+
+	@Test
+	void fixedModes() {
+		assertFalse(new DeflatePolicy(DeflateMode.OFF, 0, BUDGET_NANOS).accept(false));
+		assertTrue(new DeflatePolicy(DeflateMode.ALL, 0, BUDGET_NANOS).accept(true));
+		assertFalse(new DeflatePolicy(DeflateMode.ALL, 0, BUDGET_NANOS).isSampleFanout());
+	}
+
+	@Test
+	void adaptiveOnSizeAndRatio() {
+		DeflatePolicy policy = new DeflatePolicy(DeflateMode.ADAPTIVE, 512, BUDGET_NANOS);
+		// Nothing to go on before the first sample.
+		assertFalse(policy.accept(false));
+
+		policy.sample(PreparedFrame.positions(1, true, positions(200)), 8000);
+		assertTrue(policy.getEstimate(false).ratio() < 0.5);
+		assertTrue(policy.accept(false));
+		assertFalse(policy.accept(true));
+
+		// Random bytes don't compress.
+		byte[] noise = new byte[4000];
+		new Random(1).nextBytes(noise);
+		policy.sample(PreparedFrame.positions(1, true, noise), 4000);
+		assertTrue(policy.getEstimate(true).ratio() > DeflatePolicy.MAX_RATIO);
+		assertFalse(policy.accept(true));
+
+		// Small frames aren't worth it.
+		DeflatePolicy small = new DeflatePolicy(DeflateMode.ADAPTIVE, 512, BUDGET_NANOS);
+		small.sample(PreparedFrame.positions(1, true, positions(5)), 100);
+		assertFalse(small.accept(false));
+	}
+
+	@Test
+	void adaptiveWithinBudget() {
+		DeflatePolicy policy = new DeflatePolicy(DeflateMode.ADAPTIVE, 512, BUDGET_NANOS);
+		policy.sample(PreparedFrame.positions(1, true, positions(200)), 8000);
+		policy.opened(false, true);
+		policy.opened(true, false);
+		assertEquals(1, policy.getSessions());
+		long sessionNanos = policy.getTickNanos();
+		assertTrue(sessionNanos > 0);
+
+		// No deflate time left in the budget.
+		DeflatePolicy tight = new DeflatePolicy(DeflateMode.ADAPTIVE, 512, 0);
+		tight.sample(PreparedFrame.positions(1, true, positions(200)), 8000);
+		assertFalse(tight.accept(false));
+
+		policy.closed(false, true);
+		assertEquals(0, policy.getSessions());
+		assertEquals(0, policy.getTickNanos());
+	}
+
+	private static String positions(int count) {
+		StringBuilder sb = new StringBuilder("$p:");
+		for (int i = 0; i < count; i++) {
+			sb.append('\n').append("d").append(i).append('\t').append(i * 7 % 600).append('\t').append(i * 3 % 400);
+		}
+		return sb.toString();
+	}
+}
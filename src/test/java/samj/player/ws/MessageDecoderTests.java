@@ -0,0 +1,47 @@
+package samj.player.ws;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+import samj.player.service.PlayerService;
+
+class MessageDecoderTests {
+
+	@Test
+	void textMessages() {
+		assertEquals(MessageDecoder.Type.KEY, MessageDecoder.type("$key:UL"));
+		assertEquals(MessageDecoder.Type.VIEW, MessageDecoder.type("$view:0\t0\t600\t400"));
+		assertEquals(MessageDecoder.Type.SEND_ALL, MessageDecoder.type("$send*:hi"));
+		assertEquals(MessageDecoder.Type.RESYNC, MessageDecoder.type("$resync:"));
+		assertEquals(MessageDecoder.Type.UNKNOWN, MessageDecoder.type("$kex:U"));
+		assertEquals(MessageDecoder.Type.UNKNOWN, MessageDecoder.type("$"));
+		assertEquals(MessageDecoder.Type.UNKNOWN, MessageDecoder.type("key:U"));
+
+		assertEquals(PlayerService.KEY_UP | PlayerService.KEY_LEFT, MessageDecoder.keys("$key:UL"));
+		assertEquals(PlayerService.KEY_DOWN | PlayerService.KEY_RIGHT, MessageDecoder.keys("$key:RD"));
+		assertEquals(0, MessageDecoder.keys("$key:"));
+	}
+
+	@Test
+	void binaryKeys() {
+		ByteBuffer payload = ByteBuffer.wrap(new byte[] {(byte) 0xf9});
+		assertTrue(MessageDecoder.isKeyMessage(payload));
+		int keyByte = MessageDecoder.keyByte(payload);
+		assertEquals(15, MessageDecoder.seq(keyByte));
+		assertEquals(PlayerService.KEY_UP | PlayerService.KEY_RIGHT, MessageDecoder.keys(keyByte));
+		assertFalse(MessageDecoder.isKeyMessage(ByteBuffer.wrap(new byte[] {1, 2})));
+
+		// The first is taken, then only the numbers up to 7 ahead, across the wrap.
+		assertTrue(MessageDecoder.isNewer(9, MessageDecoder.NO_SEQ));
+		assertTrue(MessageDecoder.isNewer(0, 15));
+		assertTrue(MessageDecoder.isNewer(6, 15));
+		assertFalse(MessageDecoder.isNewer(7, 15));
+		assertFalse(MessageDecoder.isNewer(15, 15));
+		assertFalse(MessageDecoder.isNewer(14, 15));
+	}
+}
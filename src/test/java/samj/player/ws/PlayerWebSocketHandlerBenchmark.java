@@ -0,0 +1,105 @@
+package samj.player.ws;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+
+import samj.player.MockWebSocketSession;
+import samj.player.config.PlayerProperties;
+import samj.player.metrics.PlayerMetrics;
+import samj.player.service.PlayerService;
+import samj.player.util.JacksonMapper;
+
+/*
+ * The fanout of a message to every session's queue, and the parsing of the browsers' messages.
+ * The mock sessions send straight away and don't keep the messages.  The tick is slowed right
+ * down so the room's timer thread doesn't run during the measurement.
+ *
+ * Run with: mvn test -Pjmh -Djmh.args=PlayerWebSocketHandlerBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PlayerWebSocketHandlerBenchmark {
+
+	@Param({"10", "100", "1000"})
+	int sessions;
+
+	private ExecutorService executor;
+	private PlayerWebSocketHandler handler;
+	private MockWebSocketSession[] mockSessions;
+	private final TextMessage keyMessage = new TextMessage("$key:UL");
+	private final byte[] binaryKey = {0};
+	private final TextMessage viewMessage = new TextMessage("$view:10\t20\t600\t400");
+
+	@Setup
+	public void setup() throws Exception {
+		PlayerProperties properties = new PlayerProperties();
+		properties.setTickMillis(1_000_000);
+		properties.setRoomSplitPlayers(0);
+		executor = Executors.newVirtualThreadPerTaskExecutor();
+		PlayerMetrics metrics = new PlayerMetrics();
+		PlayerService playerService = new PlayerService(executor, properties, metrics);
+		handler = new PlayerWebSocketHandler(executor, new JacksonMapper(), playerService, metrics, SendPolicy.DEFAULT,
+				properties.toDeflatePolicy());
+		playerService.setCustomWebSocketHandler(handler);
+		mockSessions = new MockWebSocketSession[sessions];
+		for (int i = 0; i < sessions; i++) {
+			MockWebSocketSession session = new MockWebSocketSession("s" + i, "name" + i);
+			session.setRecording(false);
+			session.setSendDelay(Duration.ZERO);
+			mockSessions[i] = session;
+			handler.afterConnectionEstablished(session);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		for (MockWebSocketSession session : mockSessions) {
+			handler.afterConnectionClosed(session, CloseStatus.NORMAL);
+		}
+		executor.shutdownNow();
+	}
+
+	@Benchmark
+	public void sendAll() {
+		handler.sendAll("$all:[name0]:hello everyone");
+	}
+
+	@Benchmark
+	public void keyMessage() throws Exception {
+		handler.handleTextMessage(mockSessions[0], keyMessage);
+	}
+
+	// The sequence number goes up so every message is taken.
+	@Benchmark
+	public void binaryKeyMessage() throws Exception {
+		binaryKey[0] = (byte) (binaryKey[0] + 0x10);
+		handler.handleBinaryMessage(mockSessions[0], new BinaryMessage(binaryKey));
+	}
+
+	@Benchmark
+	public void viewMessage() throws Exception {
+		handler.handleTextMessage(mockSessions[0], viewMessage);
+	}
+}
@@ -0,0 +1,105 @@
+package samj.player.ws;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import samj.player.metrics.PlayerMetrics;
+
+class PlayerWebSocketSessionTests {
+
+	@Test
+	void stalePositionsReplacedControlKept() throws Exception {
+		WebSocketSession ws = mock(WebSocketSession.class);
+		when(ws.isOpen()).thenReturn(true);
+		List<String> sent = new ArrayList<>();
+		doAnswer(invocation -> {
+			WebSocketMessage<?> message = invocation.getArgument(0);
+			sent.add(((TextMessage) message).getPayload());
+			return null;
+		}).when(ws).sendMessage(any());
+		ExecutorService executor = mock(ExecutorService.class);
+		PlayerMetrics metrics = new PlayerMetrics();
+		PlayerWebSocketSession session = new PlayerWebSocketSession("one", false, ws, executor, metrics, SendPolicy.DEFAULT);
+
+		session.send(PreparedFrame.positions(1, false, "$p:a"));
+		session.send(PreparedFrame.positions(1, false, "$p:b"));
+		session.send("$n:p1:one");
+		session.send(PreparedFrame.positions(2, false, "$p:c"));
+		assertEquals(2, session.getQueueDepth());
+		assertEquals(2, metrics.getFramesDropped().sum());
+		assertTrue(session.takeKeyframeWanted());
+		assertFalse(session.takeKeyframeWanted());
+
+		// One drain for all the messages, control first.
+		ArgumentCaptor<Runnable> drain = ArgumentCaptor.forClass(Runnable.class);
+		verify(executor, times(1)).execute(drain.capture());
+		drain.getValue().run();
+		assertEquals(List.of("$n:p1:one", "$p:c"), sent);
+		assertEquals(0, session.getQueueDepth());
+	}
+
+	@Test
+	void positionLaneBounded() {
+		WebSocketSession ws = mock(WebSocketSession.class);
+		PlayerMetrics metrics = new PlayerMetrics();
+		PlayerWebSocketSession session = new PlayerWebSocketSession("one", false, ws, mock(ExecutorService.class), metrics,
+				SendPolicy.DEFAULT);
+		for (int i = 0; i < PlayerWebSocketSession.MAX_POSITION_FRAMES + 3; i++) {
+			session.send(PreparedFrame.positions(1, false, "$p:" + i));
+		}
+		assertEquals(PlayerWebSocketSession.MAX_POSITION_FRAMES, session.getQueueDepth());
+		assertEquals(3, metrics.getFramesDropped().sum());
+	}
+
+	@Test
+	void slowSessionDowngradedThenClosed() throws Exception {
+		WebSocketSession ws = mock(WebSocketSession.class);
+		when(ws.getId()).thenReturn("slow");
+		PlayerMetrics metrics = new PlayerMetrics();
+		// The drain never runs, so the browser looks stuck.
+		ExecutorService executor = mock(ExecutorService.class);
+		SendPolicy policy = new SendPolicy(20, 10, 1000);
+		PlayerWebSocketSession session = new PlayerWebSocketSession("one", false, ws, executor, metrics, policy);
+		long tick = 1;
+		while (!session.isDowngraded() && tick < 100) {
+			session.send(PreparedFrame.positions(tick++, false, "$p:a"));
+		}
+		// Behind from tick 2, downgraded on tick 22.
+		assertEquals(23, tick);
+		assertEquals(1, metrics.getSessionsDowngraded().sum());
+		session.takeKeyframeWanted();
+		session.send(PreparedFrame.positions(tick++, false, "$p:a"));
+		assertEquals(1, metrics.getFramesSkipped().sum());
+		for (int i = 0; i < 10; i++) {
+			session.send(PreparedFrame.positions(tick++, false, "$p:a"));
+		}
+		assertTrue(session.takeKeyframeWanted());
+		while (metrics.getSessionsOverloaded().sum() == 0 && tick < 100) {
+			session.send(PreparedFrame.positions(tick++, true, "$p:a"));
+		}
+		assertEquals(0, session.getQueueDepth());
+		// The drain was started once, then the close is run on its own thread.
+		ArgumentCaptor<Runnable> runs = ArgumentCaptor.forClass(Runnable.class);
+		verify(executor, times(2)).execute(runs.capture());
+		runs.getAllValues().get(1).run();
+		verify(ws).close(any(CloseStatus.class));
+	}
+}
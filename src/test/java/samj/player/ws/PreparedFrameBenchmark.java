@@ -0,0 +1,69 @@
+package samj.player.ws;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+
+/*
+ * Cost of a position message of 100 players going to every session.  The text encode stands in
+ * for the container's UTF-8 encode of each text message it sends, which is the same whether the
+ * TextMessage is shared or not, so only the binary frame is encoded once.
+ *
+ * Run with: mvn test -Pjmh -Djmh.args=PreparedFrameBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PreparedFrameBenchmark {
+
+	@Param({"1000", "10000"})
+	int sessions;
+
+	private PreparedFrame text;
+	private PreparedFrame binary;
+
+	@Setup
+	public void setup() {
+		StringBuilder sb = new StringBuilder("$p:");
+		for (int i = 0; i < 100; i++) {
+			sb.append(i > 0 ? "\n" : "").append('d').append(i).append('\t').append(i * 5).append('\t').append(i * 3);
+		}
+		String content = sb.toString();
+		text = PreparedFrame.text(content);
+		binary = PreparedFrame.positions(1, false, content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Benchmark
+	public long text() {
+		long bytes = 0;
+		for (int s = 0; s < sessions; s++) {
+			bytes += ((TextMessage) text.toMessage()).getPayload().getBytes(StandardCharsets.UTF_8).length;
+		}
+		return bytes;
+	}
+
+	@Benchmark
+	public long sharedBinary() {
+		long bytes = 0;
+		for (int s = 0; s < sessions; s++) {
+			bytes += ((BinaryMessage) binary.toMessage()).getPayloadLength();
+		}
+		return bytes;
+	}
+}
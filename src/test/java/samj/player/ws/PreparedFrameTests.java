@@ -0,0 +1,31 @@
+package samj.player.ws;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.BinaryMessage;
+
+class PreparedFrameTests {
+
+	@Test
+	void sessionsShareTheFrame() {
+		PreparedFrame text = PreparedFrame.text("$p:d1\t10\t20");
+		assertSame(text.toMessage(), text.toMessage());
+
+		PreparedFrame binary = PreparedFrame.positions(1, false, new byte[] {1, 2, 3, 4});
+		ByteBuffer first = ((BinaryMessage) binary.toMessage()).getPayload();
+		// Sending consumes the buffer, the next session still gets the whole frame.
+		first.get(new byte[4]);
+		assertEquals(4, ((BinaryMessage) binary.toMessage()).getPayload().remaining());
+		assertEquals(4, binary.getSize());
+
+		// The text size is the UTF-8 payload length, counted when the frame is built.
+		for (String message : new String[] {"$n:d1\tabc", "$n:d1\t\u00e9\u20ac", "$n:\ud83d\ude00", "$n:\ud83d"}) {
+			assertEquals(message.getBytes(StandardCharsets.UTF_8).length, PreparedFrame.text(message).getSize(), message);
+		}
+	}
+}